@@ -1,24 +1,88 @@
 package com.telcontar4.android.data;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
 
 /**
  * Base class for creating and, potentially, upgrading the application's SQLite database.
+ * <p>
+ * Indexes created with {@link #createIndex(SQLiteDatabase, Table.Index)} or {@link #createTable(SQLiteDatabase, Table)}
+ * while the database is being created are deferred until its data has been populated, so that they are built once
+ * rather than maintained row by row, after which the database is analyzed to give the query planner statistics.
+ * Full-text indexes are likewise created, and built from their content tables, once the data has been populated.
  */
 public abstract class AbstractSqliteOpenHelper extends SQLiteOpenHelper {
 
   private static final String LOG_TAG = AbstractSqliteOpenHelper.class.getSimpleName();
 
+  private static final String MIGRATION_PROGRESS_TABLE = "migration_progress";
+  private static final String MIGRATION_NAME_COLUMN = "name";
+  private static final String MIGRATION_PROGRESS_COLUMN = "progress";
+  private static final String CREATE_MIGRATION_PROGRESS_TABLE = "CREATE TABLE IF NOT EXISTS "
+      + MIGRATION_PROGRESS_TABLE + " (" + MIGRATION_NAME_COLUMN + " TEXT PRIMARY KEY, " + MIGRATION_PROGRESS_COLUMN
+      + " INTEGER NOT NULL)";
+
   private final Context context;
   private final boolean seedingData;
+  private final DatabaseTuning tuning;
+  private final List<Table.Index> deferredIndexes = new ArrayList<Table.Index>();
+  private final List<Table.FullTextIndex> deferredFullTextIndexes = new ArrayList<Table.FullTextIndex>();
+  private final List<Migration> migrations = new ArrayList<Migration>();
+  // Not the helper itself, which SQLiteOpenHelper locks to open the database.
+  private final Object migrationLock = new Object();
+  private boolean creating;
+  private boolean upgraded;
 
   public AbstractSqliteOpenHelper(Context context, String name, int version, boolean seedingData) {
+    this(context, name, version, seedingData, null);
+  }
+
+  /**
+   * Creates a helper that applies the given connection settings, which may be null, whenever the database is opened.
+   */
+  public AbstractSqliteOpenHelper(Context context, String name, int version, boolean seedingData,
+      DatabaseTuning tuning) {
     super(context, name, null, version);
     this.context = context;
     this.seedingData = seedingData;
+    this.tuning = tuning;
+  }
+
+  @Override
+  public void onConfigure(SQLiteDatabase db) {
+    // Only called on API 16 and later; see onOpen for earlier versions.
+    if (tuning != null) {
+      tuning.apply(db);
+    }
+  }
+
+  /**
+   * Applies the connection settings on versions before API 16, where {@link #onConfigure(SQLiteDatabase)} isn't
+   * called, reports an upgrade, now committed, to {@link TableChangeNotifier} and completes any pending chunked
+   * migrations. Subclasses overriding this method must call through to it.
+   */
+  @Override
+  public void onOpen(SQLiteDatabase db) {
+    if (tuning != null && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+      tuning.apply(db);
+    }
+    // Android commits the upgrade's transaction just before opening the database.
+    if (upgraded) {
+      upgraded = false;
+      TableChangeNotifier.notifyAllTablesChanged();
+    }
+    if (isCompletingMigrationsOnOpen()) {
+      completePendingMigrations(db);
+    }
   }
 
   @Override
@@ -39,13 +103,95 @@ public abstract class AbstractSqliteOpenHelper extends SQLiteOpenHelper {
   }
 
   private void initialize(SQLiteDatabase db) {
-    Log.i(LOG_TAG, "Creating database tables");
-    createTables(db);
-    Log.i(LOG_TAG, "Populating reference data");
-    populateReferenceData(db, context);
-    if (seedingData) {
-      Log.i(LOG_TAG, "Seeding transactional tables with data");
-      seedTransactionalTables(db, context);
+    creating = true;
+    try {
+      Log.i(LOG_TAG, "Creating database tables");
+      long startNanos = System.nanoTime();
+      createTables(db);
+      startNanos = completePhase("createTables", startNanos);
+      Log.i(LOG_TAG, "Populating reference data");
+      populateReferenceData(db, context);
+      startNanos = completePhase("populateReferenceData", startNanos);
+      if (seedingData) {
+        Log.i(LOG_TAG, "Seeding transactional tables with data");
+        seedTransactionalTables(db, context);
+        startNanos = completePhase("seedTransactionalTables", startNanos);
+      }
+      Log.i(LOG_TAG, "Creating " + deferredIndexes.size() + " indexes");
+      for (Table.Index index : deferredIndexes) {
+        db.execSQL(index.getSql());
+      }
+      for (Table.FullTextIndex index : deferredFullTextIndexes) {
+        createFullTextIndexNow(db, index);
+      }
+      startNanos = completePhase("createIndexes", startNanos);
+      Log.i(LOG_TAG, "Analyzing database");
+      db.execSQL("ANALYZE");
+      completePhase("analyze", startNanos);
+    } finally {
+      deferredIndexes.clear();
+      deferredFullTextIndexes.clear();
+      creating = false;
+    }
+  }
+
+  private long completePhase(String phase, long startNanos) {
+    long endNanos = System.nanoTime();
+    long elapsedMillis = (endNanos - startNanos) / 1000000L;
+    Log.i(LOG_TAG, phase + " took " + elapsedMillis + " ms");
+    onCreationPhaseCompleted(phase, elapsedMillis);
+    return endNanos;
+  }
+
+  /**
+   * Called as each phase of database creation completes &mdash; createTables, populateReferenceData,
+   * seedTransactionalTables, createIndexes and analyze &mdash; for collecting first-run timings.
+   */
+  protected void onCreationPhaseCompleted(String phase, long elapsedMillis) {
+  }
+
+  /**
+   * Creates a table, deferring the creation of any indexes and full-text indexes already added to it when called
+   * from {@link #createTables(SQLiteDatabase)}.
+   */
+  protected void createTable(SQLiteDatabase db, Table table) {
+    db.execSQL(table.getSql());
+    for (Table.Index index : table.getIndexes()) {
+      createIndex(db, index);
+    }
+    for (Table.FullTextIndex index : table.getFullTextIndexes()) {
+      createFullTextIndex(db, index);
+    }
+  }
+
+  /**
+   * Creates a full-text index and the triggers that maintain it, and builds it from its content table; during
+   * database creation, this is deferred until the data has been populated.
+   */
+  protected void createFullTextIndex(SQLiteDatabase db, Table.FullTextIndex index) {
+    if (creating) {
+      deferredFullTextIndexes.add(index);
+    } else {
+      createFullTextIndexNow(db, index);
+    }
+  }
+
+  private void createFullTextIndexNow(SQLiteDatabase db, Table.FullTextIndex index) {
+    db.execSQL(index.getSql());
+    for (String trigger : index.getTriggerSql()) {
+      db.execSQL(trigger);
+    }
+    db.execSQL(index.getRebuildSql());
+  }
+
+  /**
+   * Creates an index, or, during database creation, defers it until the data has been populated.
+   */
+  protected void createIndex(SQLiteDatabase db, Table.Index index) {
+    if (creating) {
+      deferredIndexes.add(index);
+    } else {
+      db.execSQL(index.getSql());
     }
   }
 
@@ -55,20 +201,184 @@ public abstract class AbstractSqliteOpenHelper extends SQLiteOpenHelper {
 
   protected abstract void seedTransactionalTables(SQLiteDatabase db, Context context);
 
+  /**
+   * Streams the contents of a raw resource into a table, for use from {@link #populateReferenceData}.
+   */
+  protected BulkInsert.Result loadReferenceData(SQLiteDatabase db, ReferenceDataLoader loader, int rawResourceId)
+      throws IOException {
+    InputStream in = context.getResources().openRawResource(rawResourceId);
+    try {
+      // Raw resources report their remaining length as the bytes available.
+      BulkInsert.Result result = loader.load(db, in, in.available());
+      Log.i(LOG_TAG, result.toString());
+      return result;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Registers a migration to be run by {@link #onUpgrade(SQLiteDatabase, int, int)}, typically from the subclass
+   * constructor. Migrations run in version order, and in the order registered within a version, before
+   * {@link #doUpgrade(SQLiteDatabase, int, int)}.
+   */
+  protected void addMigration(Migration migration) {
+    int position = migrations.size();
+    while (position > 0 && migrations.get(position - 1).getVersion() > migration.getVersion()) {
+      position--;
+    }
+    migrations.add(position, migration);
+  }
+
+  /**
+   * Runs the registered migrations that the upgrade includes, each in its own (nested) transaction, followed by
+   * {@link #doUpgrade(SQLiteDatabase, int, int)}. Android runs the whole upgrade within a single transaction, so a
+   * failure in any step rolls back the upgrade and is rethrown; the chunks of {@link ChunkedMigration}s are run
+   * afterwards, in transactions of their own, by {@link #completePendingMigrations()}.
+   */
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    try {
+      for (Migration migration : migrations) {
+        if (upgradeIncludes(migration.getVersion(), oldVersion, newVersion)) {
+          runMigration(db, migration);
+        }
+      }
+      long startNanos = System.nanoTime();
+      db.beginTransaction();
+      try {
+        doUpgrade(db, oldVersion, newVersion);
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+      reportMigrationStep("doUpgrade", newVersion, startNanos);
+      upgraded = true;
+    } catch (RuntimeException e) {
+      Log.e(LOG_TAG, "Unable to upgrade SQLite database from " + oldVersion + " to " + newVersion, e);
+      throw e;
+    }
+  }
+
+  private void runMigration(SQLiteDatabase db, Migration migration) {
+    long startNanos = System.nanoTime();
     db.beginTransaction();
     try {
-      doUpgrade(db, oldVersion, newVersion);
+      migration.migrate(db);
+      if (migration instanceof ChunkedMigration) {
+        db.execSQL(CREATE_MIGRATION_PROGRESS_TABLE);
+        db.execSQL("INSERT OR REPLACE INTO " + MIGRATION_PROGRESS_TABLE + " (" + MIGRATION_NAME_COLUMN + ", "
+            + MIGRATION_PROGRESS_COLUMN + ") VALUES (?, ?)", new Object[] { migration.getName(),
+            ChunkedMigration.START });
+      }
       db.setTransactionSuccessful();
-    } catch (Exception e) {
-      Log.e(LOG_TAG, "Unable to upgrade SQLite database from " + oldVersion + " to " + newVersion, e);
     } finally {
       db.endTransaction();
     }
+    reportMigrationStep(migration.getName(), migration.getVersion(), startNanos);
+  }
+
+  private void reportMigrationStep(String name, int version, long startNanos) {
+    long elapsedMillis = (System.nanoTime() - startNanos) / 1000000L;
+    Log.i(LOG_TAG, "Migration step " + name + " for version " + version + " took " + elapsedMillis + " ms");
+    onMigrationStepCompleted(name, version, elapsedMillis);
+  }
+
+  /**
+   * Called as each migration step completes: each registered migration, {@code doUpgrade} and, once all its chunks
+   * are done, each chunked migration.
+   */
+  protected void onMigrationStepCompleted(String name, int version, long elapsedMillis) {
+  }
+
+  protected void doUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+  }
+
+  /**
+   * Runs, or resumes, the chunks of any chunked migrations left pending by an upgrade. This is called when the
+   * database is opened unless {@link #isCompletingMigrationsOnOpen()} is overridden to return false, in which case
+   * it should be called from a background thread.
+   */
+  public void completePendingMigrations() {
+    completePendingMigrations(getWritableDatabase());
   }
 
-  protected abstract void doUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+  /**
+   * Returns true if pending chunked migrations should be completed before the database is returned by
+   * {@code getWritableDatabase}; override to return false to complete them later, in the background, accepting
+   * that the data they migrate is incomplete in the meantime.
+   */
+  protected boolean isCompletingMigrationsOnOpen() {
+    return true;
+  }
+
+  /**
+   * Completes the pending chunks, each in a transaction of its own so that other threads can use the database
+   * between them.
+   */
+  private void completePendingMigrations(SQLiteDatabase db) {
+    boolean hasChunkedMigrations = false;
+    for (Migration migration : migrations) {
+      hasChunkedMigrations |= migration instanceof ChunkedMigration;
+    }
+    if (!hasChunkedMigrations || db.isReadOnly()) {
+      return;
+    }
+    synchronized (migrationLock) {
+      db.execSQL(CREATE_MIGRATION_PROGRESS_TABLE);
+      for (Migration migration : migrations) {
+        if (migration instanceof ChunkedMigration) {
+          Long progress = readMigrationProgress(db, migration.getName());
+          if (progress != null) {
+            completeChunkedMigration(db, (ChunkedMigration) migration, progress);
+          }
+        }
+      }
+    }
+  }
+
+  private Long readMigrationProgress(SQLiteDatabase db, String migrationName) {
+    Cursor cursor = db.rawQuery("SELECT " + MIGRATION_PROGRESS_COLUMN + " FROM " + MIGRATION_PROGRESS_TABLE
+        + " WHERE " + MIGRATION_NAME_COLUMN + " = ?", new String[] { migrationName });
+    try {
+      return cursor.moveToFirst() ? cursor.getLong(0) : null;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private void completeChunkedMigration(SQLiteDatabase db, ChunkedMigration migration, long progress) {
+    Log.i(LOG_TAG, "Resuming migration " + migration + " from " + progress);
+    long startNanos = System.nanoTime();
+    int chunks = 0;
+    while (progress != ChunkedMigration.COMPLETE) {
+      db.beginTransaction();
+      try {
+        long nextProgress = migration.migrateChunk(db, progress, migration.getChunkSize());
+        if (nextProgress == ChunkedMigration.COMPLETE) {
+          migration.finish(db);
+          db.delete(MIGRATION_PROGRESS_TABLE, MIGRATION_NAME_COLUMN + " = ?", new String[] { migration.getName() });
+        } else {
+          db.execSQL("UPDATE " + MIGRATION_PROGRESS_TABLE + " SET " + MIGRATION_PROGRESS_COLUMN + " = ? WHERE "
+              + MIGRATION_NAME_COLUMN + " = ?", new Object[] { nextProgress, migration.getName() });
+        }
+        db.setTransactionSuccessful();
+        progress = nextProgress;
+        chunks++;
+      } catch (RuntimeException e) {
+        Log.e(LOG_TAG, "Migration " + migration + " failed after " + chunks + " chunks; it will resume from "
+            + progress, e);
+        throw e;
+      } finally {
+        db.endTransaction();
+      }
+      if (!db.inTransaction()) {
+        TableChangeNotifier.notifyAllTablesChanged();
+      }
+    }
+    Log.d(LOG_TAG, "Migration " + migration + " completed in " + chunks + " chunks");
+    reportMigrationStep(migration.getName(), migration.getVersion(), startNanos);
+  }
 
   protected boolean upgradeIncludes(int schemaChangeVersion, int oldVersion, int newVersion) {
     return schemaChangeVersion > oldVersion && schemaChangeVersion <= newVersion;
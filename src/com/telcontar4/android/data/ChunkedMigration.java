@@ -0,0 +1,69 @@
+package com.telcontar4.android.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A migration whose data changes are made a chunk at a time, each chunk in its own transaction, so that rebuilding a
+ * large table neither holds one huge transaction nor starts again from scratch if the process dies part way.
+ * <p>
+ * {@link #prepare(SQLiteDatabase)} runs during the upgrade itself, with the other migrations, and should make any
+ * schema changes (creating the new table, say). Android runs the whole upgrade in a single transaction, so the chunks
+ * are run afterwards, when the database is opened or when
+ * {@link AbstractSqliteOpenHelper#completePendingMigrations()} is called. Progress is persisted with each chunk, and
+ * an interrupted migration resumes from the last completed chunk the next time pending migrations are run. Once the
+ * last chunk is done, {@link #finish(SQLiteDatabase)} runs, in the same transaction.
+ * <p>
+ * A typical row copy uses the last rowid copied as its progress:
+ *
+ * <pre>
+ * protected long migrateChunk(SQLiteDatabase db, long lastRowId, int chunkSize) {
+ *   long upTo = lastRowId + chunkSize;
+ *   db.execSQL("INSERT INTO new_table SELECT ... FROM old_table WHERE rowid > " + lastRowId
+ *       + " AND rowid <= " + upTo);
+ *   return upTo < DatabaseUtils.longForQuery(db, "SELECT MAX(rowid) FROM old_table", null) ? upTo : COMPLETE;
+ * }
+ * </pre>
+ */
+public abstract class ChunkedMigration extends Migration {
+
+  /**
+   * Returned by {@link #migrateChunk(SQLiteDatabase, long, int)} when there is nothing left to migrate.
+   */
+  public static final long COMPLETE = Long.MIN_VALUE;
+
+  /**
+   * The progress passed to the first chunk.
+   */
+  public static final long START = 0;
+
+  private final int chunkSize;
+
+  protected ChunkedMigration(int version, String name, int chunkSize) {
+    super(version, name);
+    this.chunkSize = chunkSize;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  @Override
+  protected final void migrate(SQLiteDatabase db) {
+    prepare(db);
+  }
+
+  protected void prepare(SQLiteDatabase db) {
+  }
+
+  /**
+   * Migrates the next chunk of up to {@code chunkSize} rows, following on from {@code progress}, which is
+   * {@link #START} for the first chunk and otherwise the value returned for the previous chunk.
+   *
+   * @return the progress to resume from, or {@link #COMPLETE}
+   */
+  protected abstract long migrateChunk(SQLiteDatabase db, long progress, int chunkSize);
+
+  protected void finish(SQLiteDatabase db) {
+  }
+
+}
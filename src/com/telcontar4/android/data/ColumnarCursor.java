@@ -0,0 +1,418 @@
+package com.telcontar4.android.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+/**
+ * In-memory, column-oriented copy of a cursor's rows, for results that are scanned repeatedly. Each column is held
+ * in a primitive array of its type &mdash; {@code long[]} for integers, {@code double[]} for floats and, for
+ * strings, {@code int[]} codes into a dictionary of the column's distinct values &mdash; together with a bitmap of
+ * its nulls, so that a snapshot is much smaller than the equivalent {@code ContentValues} and any cell can be read
+ * directly. Columns whose values are of more than one type fall back to an array of objects.
+ * <p>
+ * A snapshot is itself a {@link Cursor}, so it can be used with {@link DataUtils} and adapters as the original
+ * would be. {@link #duplicate()} returns a further cursor over the same data, with its own position, without
+ * copying it. Snapshots rely on {@link Cursor#getType(int)}, so need API 11 or later.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class ColumnarCursor extends AbstractCursor {
+
+  private final String[] columnNames;
+  private final Column[] columns;
+  private final int count;
+
+  private ColumnarCursor(String[] columnNames, Column[] columns, int count) {
+    this.columnNames = columnNames;
+    this.columns = columns;
+    this.count = count;
+  }
+
+  /**
+   * Copies all of the cursor's rows, leaving its position unchanged. The cursor is not closed.
+   */
+  public static ColumnarCursor snapshot(Cursor cursor) {
+    String[] columnNames = cursor.getColumnNames();
+    int count = cursor.getCount();
+    Column[] columns = new Column[columnNames.length];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = new Column(count);
+    }
+    int originalPosition = cursor.getPosition();
+    cursor.moveToPosition(-1);
+    int row = 0;
+    while (cursor.moveToNext()) {
+      for (int i = 0; i < columns.length; i++) {
+        columns[i].set(row, cursor, i);
+      }
+      row++;
+    }
+    for (Column column : columns) {
+      column.finish();
+    }
+    cursor.moveToPosition(originalPosition);
+    return new ColumnarCursor(columnNames, columns, row);
+  }
+
+  /**
+   * Executes the query and copies its results, closing the underlying cursor.
+   */
+  public static ColumnarCursor snapshot(SQLiteDatabase db, CompiledQuery query, Object... args) {
+    Cursor cursor = query.query(db, args);
+    try {
+      return snapshot(cursor);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Returns a new cursor over the same snapshot, positioned before the first row.
+   */
+  public ColumnarCursor duplicate() {
+    return new ColumnarCursor(columnNames, columns, count);
+  }
+
+  /**
+   * Returns an estimate of the heap memory held by the snapshot's data, which is shared with its duplicates. It
+   * assumes a 64-bit runtime and counts strings at two bytes per character.
+   */
+  public long getSizeEstimateBytes() {
+    long bytes = 0;
+    for (Column column : columns) {
+      bytes += column.getSizeEstimateBytes();
+    }
+    for (String columnName : columnNames) {
+      bytes += estimateSizeBytes(columnName);
+    }
+    return bytes;
+  }
+
+  private static long estimateSizeBytes(String value) {
+    return 40 + 2L * value.length();
+  }
+
+  @Override
+  public int getCount() {
+    return count;
+  }
+
+  @Override
+  public String[] getColumnNames() {
+    return columnNames;
+  }
+
+  @Override
+  public int getType(int column) {
+    return columns[column].getType(mPos);
+  }
+
+  @Override
+  public boolean isNull(int column) {
+    return columns[column].isNull(mPos);
+  }
+
+  @Override
+  public String getString(int column) {
+    return columns[column].getString(mPos);
+  }
+
+  @Override
+  public short getShort(int column) {
+    return (short) columns[column].getLong(mPos);
+  }
+
+  @Override
+  public int getInt(int column) {
+    return (int) columns[column].getLong(mPos);
+  }
+
+  @Override
+  public long getLong(int column) {
+    return columns[column].getLong(mPos);
+  }
+
+  @Override
+  public float getFloat(int column) {
+    return (float) columns[column].getDouble(mPos);
+  }
+
+  @Override
+  public double getDouble(int column) {
+    return columns[column].getDouble(mPos);
+  }
+
+  @Override
+  public byte[] getBlob(int column) {
+    return columns[column].getBlob(mPos);
+  }
+
+  /**
+   * The values of a single column. Storage for the column's type is allocated when its first non-null value is set;
+   * if a value of another type follows, the values are moved to an array of objects.
+   */
+  private static class Column {
+
+    private static final int MIXED = -1;
+
+    private final int capacity;
+    private final long[] nulls;
+    private int type = Cursor.FIELD_TYPE_NULL;
+    private long[] longs;
+    private double[] doubles;
+    private int[] stringCodes;
+    private List<String> dictionary;
+    private Map<String, Integer> dictionaryCodes;
+    private byte[][] blobs;
+    private Object[] objects;
+
+    Column(int capacity) {
+      this.capacity = capacity;
+      nulls = new long[(capacity + 63) / 64];
+    }
+
+    void set(int row, Cursor cursor, int column) {
+      int valueType = cursor.getType(column);
+      if (valueType == Cursor.FIELD_TYPE_NULL) {
+        nulls[row >> 6] |= 1L << row;
+        return;
+      }
+      if (type == Cursor.FIELD_TYPE_NULL) {
+        allocate(valueType);
+      } else if (type != valueType && type != MIXED) {
+        convertToObjects(row);
+      }
+      switch (type) {
+      case Cursor.FIELD_TYPE_INTEGER:
+        longs[row] = cursor.getLong(column);
+        break;
+      case Cursor.FIELD_TYPE_FLOAT:
+        doubles[row] = cursor.getDouble(column);
+        break;
+      case Cursor.FIELD_TYPE_STRING:
+        stringCodes[row] = encode(cursor.getString(column));
+        break;
+      case Cursor.FIELD_TYPE_BLOB:
+        blobs[row] = cursor.getBlob(column);
+        break;
+      default:
+        objects[row] = readObject(cursor, column, valueType);
+      }
+    }
+
+    private void allocate(int valueType) {
+      type = valueType;
+      switch (valueType) {
+      case Cursor.FIELD_TYPE_INTEGER:
+        longs = new long[capacity];
+        break;
+      case Cursor.FIELD_TYPE_FLOAT:
+        doubles = new double[capacity];
+        break;
+      case Cursor.FIELD_TYPE_STRING:
+        stringCodes = new int[capacity];
+        dictionary = new ArrayList<String>();
+        dictionaryCodes = new HashMap<String, Integer>();
+        break;
+      default:
+        blobs = new byte[capacity][];
+      }
+    }
+
+    private int encode(String value) {
+      Integer code = dictionaryCodes.get(value);
+      if (code == null) {
+        code = dictionary.size();
+        dictionary.add(value);
+        dictionaryCodes.put(value, code);
+      }
+      return code;
+    }
+
+    /**
+     * Discards the map used to find the codes of strings as they are set, which reading doesn't need.
+     */
+    void finish() {
+      dictionaryCodes = null;
+    }
+
+    private void convertToObjects(int rowCount) {
+      objects = new Object[capacity];
+      for (int row = 0; row < rowCount; row++) {
+        objects[row] = isNull(row) ? null : getObject(row);
+      }
+      type = MIXED;
+      longs = null;
+      doubles = null;
+      stringCodes = null;
+      dictionary = null;
+      dictionaryCodes = null;
+      blobs = null;
+    }
+
+    private static Object readObject(Cursor cursor, int column, int valueType) {
+      switch (valueType) {
+      case Cursor.FIELD_TYPE_INTEGER:
+        return cursor.getLong(column);
+      case Cursor.FIELD_TYPE_FLOAT:
+        return cursor.getDouble(column);
+      case Cursor.FIELD_TYPE_BLOB:
+        return cursor.getBlob(column);
+      default:
+        return cursor.getString(column);
+      }
+    }
+
+    private Object getObject(int row) {
+      switch (type) {
+      case Cursor.FIELD_TYPE_INTEGER:
+        return longs[row];
+      case Cursor.FIELD_TYPE_FLOAT:
+        return doubles[row];
+      case Cursor.FIELD_TYPE_STRING:
+        return dictionary.get(stringCodes[row]);
+      case Cursor.FIELD_TYPE_BLOB:
+        return blobs[row];
+      default:
+        return objects[row];
+      }
+    }
+
+    long getSizeEstimateBytes() {
+      long bytes = 64 + 8L * nulls.length;
+      if (longs != null) {
+        bytes += 8L * longs.length;
+      }
+      if (doubles != null) {
+        bytes += 8L * doubles.length;
+      }
+      if (stringCodes != null) {
+        bytes += 4L * stringCodes.length;
+        for (String value : dictionary) {
+          // The string, its list slot and its map entry.
+          bytes += estimateSizeBytes(value) + 8 + 48;
+        }
+      }
+      if (blobs != null) {
+        bytes += 8L * blobs.length + estimateBlobsSizeBytes(blobs);
+      }
+      if (objects != null) {
+        bytes += 8L * objects.length;
+        for (Object value : objects) {
+          if (value instanceof String) {
+            bytes += estimateSizeBytes((String) value);
+          } else if (value instanceof byte[]) {
+            bytes += 16 + ((byte[]) value).length;
+          } else if (value != null) {
+            bytes += 16;
+          }
+        }
+      }
+      return bytes;
+    }
+
+    private static long estimateBlobsSizeBytes(byte[][] values) {
+      long bytes = 0;
+      for (byte[] value : values) {
+        if (value != null) {
+          bytes += 16 + value.length;
+        }
+      }
+      return bytes;
+    }
+
+    boolean isNull(int row) {
+      return (nulls[row >> 6] & (1L << row)) != 0;
+    }
+
+    int getType(int row) {
+      if (isNull(row)) {
+        return Cursor.FIELD_TYPE_NULL;
+      } else if (type != MIXED) {
+        return type;
+      }
+      Object value = objects[row];
+      if (value instanceof Long) {
+        return Cursor.FIELD_TYPE_INTEGER;
+      } else if (value instanceof Double) {
+        return Cursor.FIELD_TYPE_FLOAT;
+      } else if (value instanceof byte[]) {
+        return Cursor.FIELD_TYPE_BLOB;
+      } else {
+        return Cursor.FIELD_TYPE_STRING;
+      }
+    }
+
+    long getLong(int row) {
+      if (isNull(row)) {
+        return 0;
+      }
+      switch (type) {
+      case Cursor.FIELD_TYPE_INTEGER:
+        return longs[row];
+      case Cursor.FIELD_TYPE_FLOAT:
+        return (long) doubles[row];
+      default:
+        Object value = getObject(row);
+        if (value instanceof Number) {
+          return ((Number) value).longValue();
+        }
+        return (long) parseDouble(value);
+      }
+    }
+
+    double getDouble(int row) {
+      if (isNull(row)) {
+        return 0;
+      }
+      switch (type) {
+      case Cursor.FIELD_TYPE_INTEGER:
+        return longs[row];
+      case Cursor.FIELD_TYPE_FLOAT:
+        return doubles[row];
+      default:
+        Object value = getObject(row);
+        if (value instanceof Number) {
+          return ((Number) value).doubleValue();
+        }
+        return parseDouble(value);
+      }
+    }
+
+    private static double parseDouble(Object value) {
+      // As SQLite does, treat text that isn't numeric as zero.
+      try {
+        return value instanceof String ? Double.parseDouble(((String) value).trim()) : 0;
+      } catch (NumberFormatException e) {
+        return 0;
+      }
+    }
+
+    String getString(int row) {
+      if (isNull(row)) {
+        return null;
+      } else if (type == Cursor.FIELD_TYPE_STRING) {
+        return dictionary.get(stringCodes[row]);
+      }
+      Object value = getObject(row);
+      return value instanceof byte[] ? new String((byte[]) value) : value.toString();
+    }
+
+    byte[] getBlob(int row) {
+      if (isNull(row)) {
+        return null;
+      }
+      Object value = getObject(row);
+      return value instanceof byte[] ? (byte[]) value : value.toString().getBytes();
+    }
+
+  }
+
+}
@@ -0,0 +1,222 @@
+package com.telcontar4.android.data;
+
+import java.util.Collections;
+import java.util.List;
+
+import android.annotation.SuppressLint;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabase.CursorFactory;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+/**
+ * The SQL and bind arguments of a {@link Query}, ready to be executed repeatedly against a database. Because values
+ * are bound rather than inlined, executing with different arguments reuses the same SQL text, and with it SQLite's
+ * compiled statement. Arguments are bound with their Java types (so a Long is bound as an INTEGER rather than as
+ * TEXT), which {@link SQLiteDatabase#rawQuery(String, String[])} can't do.
+ * <p>
+ * The single-value {@code queryForXXX} methods keep a compiled {@link SQLiteStatement} for the last database they
+ * were called with; {@link #close()} releases it.
+ * <p>
+ * A query with an IN list too long to bind, from {@link Query#whereIn(String, long[])}, is executed in chunks or
+ * with the list in a temporary table, as described by {@link InList}.
+ */
+public class CompiledQuery {
+
+  private final String sql;
+  private final Object[] bindArgs;
+  private final List<InList> inLists;
+
+  private SQLiteDatabase statementDatabase;
+  private SQLiteStatement statement;
+
+  CompiledQuery(String sql, Object[] bindArgs) {
+    this(sql, bindArgs, Collections.<InList>emptyList());
+  }
+
+  CompiledQuery(String sql, Object[] bindArgs, List<InList> inLists) {
+    this.sql = sql;
+    this.bindArgs = bindArgs;
+    this.inLists = inLists;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  public int getBindArgCount() {
+    return bindArgs.length;
+  }
+
+  public Object[] getBindArgs() {
+    return bindArgs.clone();
+  }
+
+  /**
+   * Executes the query with the argument values collected when it was built.
+   */
+  public Cursor query(SQLiteDatabase db) {
+    return query(db, bindArgs);
+  }
+
+  /**
+   * Executes the query with the given argument values, which replace those collected when it was built.
+   */
+  public Cursor query(SQLiteDatabase db, Object... args) {
+    checkBindArgCount(args);
+    if (!inLists.isEmpty()) {
+      return InList.query(db, sql, args, inLists);
+    }
+    return db.rawQueryWithFactory(new BindingCursorFactory(args), sql, null, null);
+  }
+
+  private void checkBindArgCount(Object[] args) {
+    if (args.length != bindArgs.length) {
+      throw new IllegalArgumentException("Expected " + bindArgs.length + " bind arguments but got " + args.length
+          + " for " + sql);
+    }
+  }
+
+  public synchronized long queryForLong(SQLiteDatabase db, Object... args) {
+    if (!inLists.isEmpty()) {
+      Cursor cursor = queryFirstRow(db, args);
+      try {
+        return cursor.getLong(0);
+      } finally {
+        cursor.close();
+      }
+    }
+    SQLiteStatement boundStatement = bindStatement(db, args);
+    try {
+      return boundStatement.simpleQueryForLong();
+    } finally {
+      boundStatement.clearBindings();
+    }
+  }
+
+  public synchronized String queryForString(SQLiteDatabase db, Object... args) {
+    if (!inLists.isEmpty()) {
+      Cursor cursor = queryFirstRow(db, args);
+      try {
+        return cursor.getString(0);
+      } finally {
+        cursor.close();
+      }
+    }
+    SQLiteStatement boundStatement = bindStatement(db, args);
+    try {
+      return boundStatement.simpleQueryForString();
+    } finally {
+      boundStatement.clearBindings();
+    }
+  }
+
+  /**
+   * Returns a cursor on the first row, or throws, as a statement would, if there are none.
+   */
+  private Cursor queryFirstRow(SQLiteDatabase db, Object[] args) {
+    Cursor cursor = query(db, args);
+    if (!cursor.moveToFirst()) {
+      cursor.close();
+      throw new SQLiteDoneException();
+    }
+    return cursor;
+  }
+
+  /**
+   * Returns true if the query's SQL refers to the temporary tables of IN lists, which only exist while it executes.
+   */
+  boolean hasInLists() {
+    return !inLists.isEmpty();
+  }
+
+  List<InList> getInLists() {
+    return inLists;
+  }
+
+  private SQLiteStatement bindStatement(SQLiteDatabase db, Object[] args) {
+    checkBindArgCount(args);
+    if (statement == null || statementDatabase != db) {
+      close();
+      statement = db.compileStatement(sql);
+      statementDatabase = db;
+    }
+    bind(statement, args);
+    return statement;
+  }
+
+  public synchronized void close() {
+    if (statement != null) {
+      statement.close();
+      statement = null;
+      statementDatabase = null;
+    }
+  }
+
+  static void bind(SQLiteProgram program, Object[] args) {
+    for (int i = 0; i < args.length; i++) {
+      bind(program, i + 1, args[i]);
+    }
+  }
+
+  static void bind(SQLiteProgram program, int index, Object arg) {
+    if (arg == null) {
+      program.bindNull(index);
+    } else if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+      program.bindLong(index, ((Number) arg).longValue());
+    } else if (arg instanceof Double || arg instanceof Float) {
+      program.bindDouble(index, ((Number) arg).doubleValue());
+    } else if (arg instanceof Boolean) {
+      program.bindLong(index, DataUtils.getSqliteBoolean((Boolean) arg));
+    } else if (arg instanceof byte[]) {
+      program.bindBlob(index, (byte[]) arg);
+    } else {
+      program.bindString(index, arg.toString());
+    }
+  }
+
+  static String[] toSelectionArgs(Object[] args) {
+    String[] selectionArgs = new String[args.length];
+    for (int i = 0; i < args.length; i++) {
+      Object arg = args[i];
+      if (arg instanceof Boolean) {
+        selectionArgs[i] = String.valueOf(DataUtils.getSqliteBoolean((Boolean) arg));
+      } else {
+        selectionArgs[i] = arg == null ? null : arg.toString();
+      }
+    }
+    return selectionArgs;
+  }
+
+  /**
+   * Binds typed arguments to the query before creating its cursor.
+   */
+  private static class BindingCursorFactory implements CursorFactory {
+
+    private final Object[] args;
+
+    BindingCursorFactory(Object[] args) {
+      this.args = args;
+    }
+
+    @Override
+    @SuppressLint("NewApi")
+    @SuppressWarnings("deprecation")
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+      bind(query, args);
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+        return new SQLiteCursor(driver, editTable, query);
+      } else {
+        return new SQLiteCursor(db, driver, editTable, query);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,117 @@
+package com.telcontar4.android.data;
+
+import android.database.Cursor;
+
+/**
+ * Binds a fixed set of column names to a {@link Cursor} so that per-row reads are made by column index rather than by
+ * name. Column indices are resolved once, on first use, and the getters mirror those of {@link DataUtils}; columns
+ * are referred to by their position in the list supplied to the constructor.
+ *
+ * <pre>
+ * CursorColumns columns = new CursorColumns(cursor, MyTable._ID, MyTable.TEXT);
+ * while (cursor.moveToNext()) {
+ *   Long id = columns.getLong(0);
+ *   String text = columns.getString(1);
+ * }
+ * </pre>
+ */
+public class CursorColumns {
+
+  private final Cursor cursor;
+  private final String[] columnNames;
+  private int[] columnIndices;
+
+  public CursorColumns(Cursor cursor, String... columnNames) {
+    this.cursor = cursor;
+    this.columnNames = columnNames;
+  }
+
+  public Cursor getCursor() {
+    return cursor;
+  }
+
+  public int getColumnCount() {
+    return columnNames.length;
+  }
+
+  public String getColumnName(int column) {
+    return columnNames[column];
+  }
+
+  public int getColumnIndex(int column) {
+    if (columnIndices == null) {
+      columnIndices = resolveColumnIndices();
+    }
+    return columnIndices[column];
+  }
+
+  private int[] resolveColumnIndices() {
+    int[] indices = new int[columnNames.length];
+    for (int i = 0; i < columnNames.length; i++) {
+      indices[i] = cursor.getColumnIndexOrThrow(columnNames[i]);
+    }
+    return indices;
+  }
+
+  public boolean getBoolean(int column) {
+    return DataUtils.getBoolean(cursor, getColumnIndex(column));
+  }
+
+  public boolean getBooleanOrDefault(int column, boolean defaultValue) {
+    return DataUtils.getBooleanOrDefault(cursor, getColumnIndex(column), defaultValue);
+  }
+
+  public Integer getInt(int column) {
+    return DataUtils.getInt(cursor, getColumnIndex(column));
+  }
+
+  public int getIntOrDefault(int column, int defaultValue) {
+    return DataUtils.getIntOrDefault(cursor, getColumnIndex(column), defaultValue);
+  }
+
+  public Long getLong(int column) {
+    return DataUtils.getLong(cursor, getColumnIndex(column));
+  }
+
+  public long getLongOrDefault(int column, long defaultValue) {
+    return DataUtils.getLongOrDefault(cursor, getColumnIndex(column), defaultValue);
+  }
+
+  public String getString(int column) {
+    return DataUtils.getString(cursor, getColumnIndex(column));
+  }
+
+  public String getFormattedDate(int column) {
+    return DataUtils.getFormattedDate(cursor, getColumnIndex(column));
+  }
+
+  public String getFormattedTime(int column) {
+    return DataUtils.getFormattedTime(cursor, getColumnIndex(column));
+  }
+
+  public String getFormattedDateTime(int column) {
+    return DataUtils.getFormattedDateTime(cursor, getColumnIndex(column));
+  }
+
+  public boolean isNull(int column) {
+    return cursor.isNull(getColumnIndex(column));
+  }
+
+  public boolean isAnyNull(int column1, int column2) {
+    return isNull(column1) || isNull(column2);
+  }
+
+  public boolean isAnyNull(int column1, int column2, int column3) {
+    return isNull(column1) || isNull(column2) || isNull(column3);
+  }
+
+  public boolean isAnyNull(int... columns) {
+    for (int column : columns) {
+      if (isNull(column)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -3,9 +3,9 @@
  */
 package com.telcontar4.android.data;
 
-import java.text.DateFormat;
 import java.util.Date;
 
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.util.Log;
 
@@ -21,7 +21,19 @@ public class DataUtils {
   }
 
   public static boolean getBoolean(Cursor cursor, String columnName) {
-    return SQLITE_BOOLEAN_INT_TRUE.equals(getInt(cursor, columnName));
+    return getBoolean(cursor, cursor.getColumnIndexOrThrow(columnName));
+  }
+
+  public static boolean getBoolean(Cursor cursor, int columnIndex) {
+    return getBooleanOrDefault(cursor, columnIndex, false);
+  }
+
+  public static boolean getBooleanOrDefault(Cursor cursor, String columnName, boolean defaultValue) {
+    return getBooleanOrDefault(cursor, cursor.getColumnIndexOrThrow(columnName), defaultValue);
+  }
+
+  public static boolean getBooleanOrDefault(Cursor cursor, int columnIndex, boolean defaultValue) {
+    return cursor.isNull(columnIndex) ? defaultValue : cursor.getInt(columnIndex) == SQLITE_BOOLEAN_INT_TRUE.intValue();
   }
 
   public static int getSqliteBoolean(boolean value) {
@@ -29,54 +41,124 @@ public class DataUtils {
   }
 
   public static Integer getInt(Cursor cursor, String columnName) {
-    return isAnyNull(cursor, columnName) ? null : cursor.getInt(cursor.getColumnIndexOrThrow(columnName));
+    return getInt(cursor, cursor.getColumnIndexOrThrow(columnName));
+  }
+
+  public static Integer getInt(Cursor cursor, int columnIndex) {
+    return cursor.isNull(columnIndex) ? null : cursor.getInt(columnIndex);
+  }
+
+  public static int getIntOrDefault(Cursor cursor, String columnName, int defaultValue) {
+    return getIntOrDefault(cursor, cursor.getColumnIndexOrThrow(columnName), defaultValue);
+  }
+
+  public static int getIntOrDefault(Cursor cursor, int columnIndex, int defaultValue) {
+    return cursor.isNull(columnIndex) ? defaultValue : cursor.getInt(columnIndex);
   }
 
   public static Long getLong(Cursor cursor, String columnName) {
-    return isAnyNull(cursor, columnName) ? null : cursor.getLong(cursor.getColumnIndexOrThrow(columnName));
+    return getLong(cursor, cursor.getColumnIndexOrThrow(columnName));
+  }
+
+  public static Long getLong(Cursor cursor, int columnIndex) {
+    return cursor.isNull(columnIndex) ? null : cursor.getLong(columnIndex);
+  }
+
+  public static long getLongOrDefault(Cursor cursor, String columnName, long defaultValue) {
+    return getLongOrDefault(cursor, cursor.getColumnIndexOrThrow(columnName), defaultValue);
+  }
+
+  public static long getLongOrDefault(Cursor cursor, int columnIndex, long defaultValue) {
+    return cursor.isNull(columnIndex) ? defaultValue : cursor.getLong(columnIndex);
   }
 
   public static String getString(Cursor cursor, String columnName) {
-    return isAnyNull(cursor, columnName) ? null : cursor.getString(cursor.getColumnIndexOrThrow(columnName));
+    return getString(cursor, cursor.getColumnIndexOrThrow(columnName));
+  }
+
+  public static String getString(Cursor cursor, int columnIndex) {
+    return cursor.isNull(columnIndex) ? null : cursor.getString(columnIndex);
   }
 
   public static String getFormattedDate(Cursor cursor, String columnName) {
-    if (isAnyNull(cursor, columnName)) {
-      return null;
-    } else {
-      Date dateValue = new Date(getLong(cursor, columnName));
-      return formatAsDate(dateValue);
-    }
+    return getFormattedDate(cursor, cursor.getColumnIndexOrThrow(columnName));
+  }
+
+  public static String getFormattedDate(Cursor cursor, int columnIndex) {
+    return cursor.isNull(columnIndex) ? null : formatAsDate(cursor.getLong(columnIndex));
   }
 
   public static String formatAsDate(Date dateValue) {
-    return DateFormat.getDateInstance().format(dateValue);
+    return formatAsDate(dateValue.getTime());
+  }
+
+  public static String formatAsDate(long epochMillis) {
+    return DateFormats.get().format(DateFormats.DATE, epochMillis);
+  }
+
+  public static void formatAsDate(long epochMillis, StringBuilder formatted) {
+    DateFormats.get().format(DateFormats.DATE, epochMillis, formatted);
+  }
+
+  public static void formatAsDate(long epochMillis, CharArrayBuffer formatted) {
+    DateFormats.get().format(DateFormats.DATE, epochMillis, formatted);
   }
 
   public static String getFormattedTime(Cursor cursor, String columnName) {
-    if (isAnyNull(cursor, columnName)) {
-      return null;
-    } else {
-      Date dateValue = new Date(getLong(cursor, columnName));
-      return formatAsTime(dateValue);
-    }
+    return getFormattedTime(cursor, cursor.getColumnIndexOrThrow(columnName));
+  }
+
+  public static String getFormattedTime(Cursor cursor, int columnIndex) {
+    return cursor.isNull(columnIndex) ? null : formatAsTime(cursor.getLong(columnIndex));
   }
 
   public static String formatAsTime(Date dateValue) {
-    return DateFormat.getTimeInstance().format(dateValue);
+    return formatAsTime(dateValue.getTime());
+  }
+
+  public static String formatAsTime(long epochMillis) {
+    return DateFormats.get().format(DateFormats.TIME, epochMillis);
+  }
+
+  public static void formatAsTime(long epochMillis, StringBuilder formatted) {
+    DateFormats.get().format(DateFormats.TIME, epochMillis, formatted);
+  }
+
+  public static void formatAsTime(long epochMillis, CharArrayBuffer formatted) {
+    DateFormats.get().format(DateFormats.TIME, epochMillis, formatted);
   }
 
   public static String getFormattedDateTime(Cursor cursor, String columnName) {
-    if (isAnyNull(cursor, columnName)) {
-      return null;
-    } else {
-      Date dateValue = new Date(getLong(cursor, columnName));
-      return formatAsDateTime(dateValue);
-    }
+    return getFormattedDateTime(cursor, cursor.getColumnIndexOrThrow(columnName));
+  }
+
+  public static String getFormattedDateTime(Cursor cursor, int columnIndex) {
+    return cursor.isNull(columnIndex) ? null : formatAsDateTime(cursor.getLong(columnIndex));
   }
 
   public static String formatAsDateTime(Date dateValue) {
-    return DateFormat.getDateTimeInstance().format(dateValue);
+    return formatAsDateTime(dateValue.getTime());
+  }
+
+  public static String formatAsDateTime(long epochMillis) {
+    return DateFormats.get().format(DateFormats.DATE_TIME, epochMillis);
+  }
+
+  public static void formatAsDateTime(long epochMillis, StringBuilder formatted) {
+    DateFormats.get().format(DateFormats.DATE_TIME, epochMillis, formatted);
+  }
+
+  public static void formatAsDateTime(long epochMillis, CharArrayBuffer formatted) {
+    DateFormats.get().format(DateFormats.DATE_TIME, epochMillis, formatted);
+  }
+
+  /**
+   * Discards the cached date and time formats so that they are recreated on next use. The formats are recreated
+   * automatically when the default locale changes, but should be invalidated explicitly when the default time zone
+   * changes.
+   */
+  public static void invalidateDateFormats() {
+    DateFormats.invalidate();
   }
 
   public static boolean isAnyNull(Cursor cursor, String... columnNames) {
@@ -88,6 +170,31 @@ public class DataUtils {
     return false;
   }
 
+  public static boolean isNull(Cursor cursor, int columnIndex) {
+    return cursor.isNull(columnIndex);
+  }
+
+  /**
+   * Returns true if any of the columns is null. Named apart from {@link #isAnyNull(Cursor, String...)} so that a call
+   * with no columns isn't ambiguous; the two- and three-column forms avoid allocating an array.
+   */
+  public static boolean isAnyNullAt(Cursor cursor, int columnIndex1, int columnIndex2) {
+    return cursor.isNull(columnIndex1) || cursor.isNull(columnIndex2);
+  }
+
+  public static boolean isAnyNullAt(Cursor cursor, int columnIndex1, int columnIndex2, int columnIndex3) {
+    return cursor.isNull(columnIndex1) || cursor.isNull(columnIndex2) || cursor.isNull(columnIndex3);
+  }
+
+  public static boolean isAnyNullAt(Cursor cursor, int... columnIndices) {
+    for (int columnIndex : columnIndices) {
+      if (cursor.isNull(columnIndex)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public static void dumpCursorContents(String logTag, String title, Cursor cursor) {
     if (Log.isLoggable(logTag, Log.VERBOSE)) {
       while (cursor.moveToNext()) {
@@ -0,0 +1,140 @@
+package com.telcontar4.android.data;
+
+import android.annotation.SuppressLint;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+/**
+ * Connection settings applied by {@link AbstractSqliteOpenHelper} when the database is opened: write-ahead logging
+ * and the {@code synchronous}, {@code cache_size}, {@code page_size}, {@code mmap_size} and {@code temp_store}
+ * pragmas. Settings that aren't specified are left at SQLite's defaults.
+ * <p>
+ * The {@link #readHeavy()} and {@link #bulkLoad()} presets can be used as they are or adjusted further:
+ *
+ * <pre>
+ * new MyOpenHelper(context, DatabaseTuning.readHeavy().cacheSizeKib(4096));
+ * </pre>
+ *
+ * Write-ahead logging (API 11 and later) allows reads to proceed concurrently with a write transaction. Note that
+ * pragmas are applied to the connection the helper opens; on API 16 and later, where they are applied from
+ * {@code onConfigure}, that is the primary connection of the pool. Android gives no way to configure the pool's read
+ * connections, so {@code cache_size}, {@code mmap_size} and {@code temp_store} only affect the writes, and the reads
+ * in transactions, made on the primary connection.
+ */
+public class DatabaseTuning {
+
+  /**
+   * Values of the {@code synchronous} pragma.
+   */
+  public enum Synchronous {
+    OFF, NORMAL, FULL
+  }
+
+  /**
+   * Values of the {@code temp_store} pragma.
+   */
+  public enum TempStore {
+    DEFAULT, FILE, MEMORY
+  }
+
+  private boolean writeAheadLogging;
+  private Synchronous synchronous;
+  private Integer cacheSizeKib;
+  private Long pageSize;
+  private Long mmapSize;
+  private TempStore tempStore;
+
+  /**
+   * Settings for databases mostly read, often while a background sync writes: write-ahead logging, with synchronous
+   * writes relaxed to NORMAL (safe in WAL mode). Cache and memory-mapping settings are left out, as they wouldn't
+   * reach the read connections.
+   */
+  public static DatabaseTuning readHeavy() {
+    return new DatabaseTuning().writeAheadLogging(true).synchronous(Synchronous.NORMAL);
+  }
+
+  /**
+   * Settings for loading large amounts of data: a 16 MB page cache, in-memory temporary tables and no syncing, which
+   * risks corruption if the device loses power, so is only suitable for databases that can be rebuilt.
+   */
+  public static DatabaseTuning bulkLoad() {
+    return new DatabaseTuning().synchronous(Synchronous.OFF).cacheSizeKib(16384).tempStore(TempStore.MEMORY);
+  }
+
+  public DatabaseTuning writeAheadLogging(boolean enabled) {
+    writeAheadLogging = enabled;
+    return this;
+  }
+
+  public DatabaseTuning synchronous(Synchronous synchronous) {
+    this.synchronous = synchronous;
+    return this;
+  }
+
+  public DatabaseTuning cacheSizeKib(int kib) {
+    cacheSizeKib = kib;
+    return this;
+  }
+
+  /**
+   * Sets the page size, which only takes effect when the database is created.
+   */
+  public DatabaseTuning pageSize(long bytes) {
+    pageSize = bytes;
+    return this;
+  }
+
+  /**
+   * Sets the maximum size of memory-mapped I/O, which needs SQLite 3.7.17 (API 21) or later and is otherwise
+   * ignored.
+   */
+  public DatabaseTuning mmapSize(long bytes) {
+    mmapSize = bytes;
+    return this;
+  }
+
+  public DatabaseTuning tempStore(TempStore tempStore) {
+    this.tempStore = tempStore;
+    return this;
+  }
+
+  public boolean isWriteAheadLogging() {
+    return writeAheadLogging;
+  }
+
+  @SuppressLint("NewApi")
+  void apply(SQLiteDatabase db) {
+    // The page size can't be changed once the database is in WAL mode.
+    if (pageSize != null) {
+      db.setPageSize(pageSize);
+    }
+    if (writeAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && !db.isReadOnly()) {
+      db.enableWriteAheadLogging();
+    }
+    if (synchronous != null) {
+      executePragma(db, "synchronous = " + synchronous);
+    }
+    if (cacheSizeKib != null) {
+      // Negative sizes are in KiB rather than pages.
+      executePragma(db, "cache_size = -" + cacheSizeKib);
+    }
+    if (mmapSize != null) {
+      executePragma(db, "mmap_size = " + mmapSize);
+    }
+    if (tempStore != null) {
+      executePragma(db, "temp_store = " + tempStore);
+    }
+  }
+
+  private static void executePragma(SQLiteDatabase db, String pragma) {
+    // Some pragmas return a row, which execSQL rejects, so all are run as queries.
+    Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+    try {
+      cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
+}
@@ -0,0 +1,87 @@
+package com.telcontar4.android.data;
+
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.database.CharArrayBuffer;
+
+/**
+ * Per-thread cache of the default locale's date, time and date/time formats used by {@link DataUtils}. DateFormat
+ * instances aren't thread-safe, so each thread gets its own set, along with the scratch objects used to format
+ * without allocating intermediate strings. A thread's set is rebuilt when the default locale changes or after
+ * {@link #invalidate()} is called.
+ */
+final class DateFormats {
+
+  static final int DATE = 0;
+  static final int TIME = 1;
+  static final int DATE_TIME = 2;
+
+  private static final AtomicInteger generation = new AtomicInteger();
+
+  private static final ThreadLocal<DateFormats> cache = new ThreadLocal<DateFormats>() {
+    @Override
+    protected DateFormats initialValue() {
+      return new DateFormats();
+    }
+  };
+
+  private final int createdInGeneration;
+  private final Locale locale;
+  private final DateFormat[] formats;
+  private final Date scratchDate = new Date();
+  private final StringBuffer scratchBuffer = new StringBuffer(32);
+  private final FieldPosition fieldPosition = new FieldPosition(0);
+
+  private DateFormats() {
+    createdInGeneration = generation.get();
+    locale = Locale.getDefault();
+    formats = new DateFormat[] { DateFormat.getDateInstance(), DateFormat.getTimeInstance(),
+        DateFormat.getDateTimeInstance() };
+  }
+
+  static DateFormats get() {
+    DateFormats dateFormats = cache.get();
+    if (!dateFormats.isCurrent()) {
+      dateFormats = new DateFormats();
+      cache.set(dateFormats);
+    }
+    return dateFormats;
+  }
+
+  static void invalidate() {
+    generation.incrementAndGet();
+  }
+
+  private boolean isCurrent() {
+    return createdInGeneration == generation.get() && locale.equals(Locale.getDefault());
+  }
+
+  String format(int style, long epochMillis) {
+    return formatToScratchBuffer(style, epochMillis).toString();
+  }
+
+  void format(int style, long epochMillis, StringBuilder formatted) {
+    formatted.append(formatToScratchBuffer(style, epochMillis));
+  }
+
+  void format(int style, long epochMillis, CharArrayBuffer formatted) {
+    StringBuffer buffer = formatToScratchBuffer(style, epochMillis);
+    int length = buffer.length();
+    if (formatted.data == null || formatted.data.length < length) {
+      formatted.data = new char[length];
+    }
+    buffer.getChars(0, length, formatted.data, 0);
+    formatted.sizeCopied = length;
+  }
+
+  private StringBuffer formatToScratchBuffer(int style, long epochMillis) {
+    scratchDate.setTime(epochMillis);
+    scratchBuffer.setLength(0);
+    return formats[style].format(scratchDate, scratchBuffer, fieldPosition);
+  }
+
+}
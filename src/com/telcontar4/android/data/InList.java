@@ -0,0 +1,332 @@
+package com.telcontar4.android.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MergeCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+/**
+ * The values of an IN predicate too many to bind as arguments, as added by {@link Query#whereIn(String, long[])}. The
+ * query selects them from a temporary table, which {@link CompiledQuery#query} creates and fills for each execution,
+ * under a name of its own so that executions whose cursors are open at the same time don't share a table.
+ * <p>
+ * A query with a single such list, outside any subquery or OR, whose rows don't depend on each other &mdash; no
+ * DISTINCT, aggregates, GROUP BY, HAVING, ORDER BY or LIMIT &mdash; is instead executed in chunks of up to
+ * {@link Query#MAX_IN_ARGS} bound values, fewer if the query's other arguments leave less room, while the list is no
+ * longer than {@link #MAX_CHUNKS} chunks, and the chunks' cursors are concatenated. That needs no write transaction,
+ * and the chunks share their SQL.
+ * <p>
+ * A temporary table only exists on the connection that created it, so it is created, queried and dropped within a
+ * transaction, which keeps the thread on that connection, and the results are read into a {@link ColumnarCursor}
+ * before it is dropped. Before API 11, which has neither a connection pool nor ColumnarCursor, the table is instead
+ * dropped when the cursor is closed.
+ * <p>
+ * That transaction is a write transaction ({@code BEGIN IMMEDIATE}) on the primary connection, held until every row
+ * has been read. Even in WAL mode, a query that falls back to a temporary table therefore waits for, and holds up,
+ * writers and other transactions, unlike an ordinary read, so such queries are best kept off the main thread and
+ * their lists kept short enough to be chunked where the query allows.
+ */
+final class InList {
+
+  /**
+   * The most chunks a query is executed in before its values are put in a temporary table instead.
+   */
+  static final int MAX_CHUNKS = 8;
+
+  private static final AtomicLong tableCount = new AtomicLong();
+
+  /**
+   * The name of the table in the query's SQL, which each execution replaces with that of its own table.
+   */
+  private final String tableName;
+  private final long[] longValues;
+  private final Object[] values;
+  private final int argIndex;
+
+  private InList(String tableName, long[] longValues, Object[] values, int argIndex) {
+    this.tableName = tableName;
+    this.longValues = longValues;
+    this.values = values;
+    this.argIndex = argIndex;
+  }
+
+  /**
+   * Returns a list of the distinct values, in ascending order, which is the fastest to insert into the table.
+   */
+  static InList of(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    int count = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (count == 0 || sorted[i] != sorted[count - 1]) {
+        sorted[count++] = sorted[i];
+      }
+    }
+    long[] distinct = new long[count];
+    System.arraycopy(sorted, 0, distinct, 0, count);
+    return new InList(newTableName(), distinct, null, -1);
+  }
+
+  /**
+   * Returns a list of the distinct values. Whole numbers are compared as Longs, as SQLite would compare them, so that
+   * no value is in two chunks.
+   */
+  static InList of(Collection<?> values) {
+    Set<Object> distinct = new LinkedHashSet<Object>(values.size());
+    for (Object value : values) {
+      if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+        distinct.add(((Number) value).longValue());
+      } else {
+        distinct.add(value);
+      }
+    }
+    return new InList(newTableName(), null, distinct.toArray(), -1);
+  }
+
+  private static String newTableName() {
+    return "in_list_" + tableCount.incrementAndGet();
+  }
+
+  /**
+   * Returns the list, to be executed in chunks with the values bound at the given index of the query's arguments, or
+   * not in chunks if the index is negative.
+   */
+  InList at(int index) {
+    return new InList(tableName, longValues, values, index);
+  }
+
+  int getArgIndex() {
+    return argIndex;
+  }
+
+  /**
+   * Returns the subquery that selects the values from the table, which the query's SQL contains.
+   */
+  String getSubquerySql() {
+    return subquerySql(tableName);
+  }
+
+  private static String subquerySql(String tableName) {
+    return "(SELECT value FROM temp." + tableName + ")";
+  }
+
+  int size() {
+    return longValues != null ? longValues.length : values.length;
+  }
+
+  private Object get(int index) {
+    return longValues != null ? Long.valueOf(longValues[index]) : values[index];
+  }
+
+  /**
+   * Returns the values padded to the next power of two by repeating the last, which doesn't change the result of an IN
+   * predicate but means lists of similar length share SQL, and so SQLite's compiled statement.
+   */
+  static Object[] pad(Object[] values) {
+    int size = paddedSize(values.length);
+    if (values.length == size) {
+      return values;
+    }
+    Object[] padded = new Object[size];
+    System.arraycopy(values, 0, padded, 0, values.length);
+    Arrays.fill(padded, values.length, size, values[values.length - 1]);
+    return padded;
+  }
+
+  static int paddedSize(int valueCount) {
+    int size = 1;
+    while (size < valueCount) {
+      size <<= 1;
+    }
+    return valueCount == 0 ? 0 : size;
+  }
+
+  static Cursor query(SQLiteDatabase db, String sql, Object[] args, List<InList> inLists) {
+    if (inLists.size() == 1 && inLists.get(0).isChunkable(args.length)) {
+      return inLists.get(0).queryInChunks(db, sql, args);
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+      return queryWithTables(db, sql, args, inLists);
+    }
+    return queryWithTablesUntilClosed(db, sql, args, inLists);
+  }
+
+  private boolean isChunkable(int otherArgCount) {
+    int chunkSize = getChunkSize(otherArgCount);
+    return argIndex >= 0 && chunkSize > 0 && size() <= chunkSize * MAX_CHUNKS;
+  }
+
+  /**
+   * Returns the most values, a power of two, that can be bound with the query's other arguments.
+   */
+  private static int getChunkSize(int otherArgCount) {
+    int room = Math.min(Query.MAX_IN_ARGS, Query.MAX_BOUND_ARGS - otherArgCount);
+    return room < 1 ? 0 : Integer.highestOneBit(room);
+  }
+
+  private Cursor queryInChunks(SQLiteDatabase db, String sql, Object[] args) {
+    int chunkSize = getChunkSize(args.length);
+    List<Cursor> cursors = new ArrayList<Cursor>();
+    try {
+      for (int start = 0; start < size(); start += chunkSize) {
+        Object[] chunk = new Object[Math.min(chunkSize, size() - start)];
+        for (int i = 0; i < chunk.length; i++) {
+          chunk[i] = get(start + i);
+        }
+        chunk = pad(chunk);
+        Object[] chunkArgs = new Object[args.length + chunk.length];
+        System.arraycopy(args, 0, chunkArgs, 0, argIndex);
+        System.arraycopy(chunk, 0, chunkArgs, argIndex, chunk.length);
+        System.arraycopy(args, argIndex, chunkArgs, argIndex + chunk.length, args.length - argIndex);
+        String chunkSql = sql.replace(getSubquerySql(), "(" + placeholders(chunk.length) + ")");
+        cursors.add(new CompiledQuery(chunkSql, chunkArgs).query(db, chunkArgs));
+      }
+    } catch (RuntimeException e) {
+      for (Cursor cursor : cursors) {
+        cursor.close();
+      }
+      throw e;
+    }
+    return new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
+  }
+
+  private static String placeholders(int count) {
+    StringBuilder placeholders = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      placeholders.append(i == 0 ? "?" : ", ?");
+    }
+    return placeholders.toString();
+  }
+
+  @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+  private static Cursor queryWithTables(SQLiteDatabase db, String sql, Object[] args, List<InList> inLists) {
+    ExecutionTables tables = new ExecutionTables(sql, inLists);
+    db.beginTransactionNonExclusive();
+    try {
+      tables.create(db, true);
+      ColumnarCursor results = ColumnarCursor.snapshot(db, new CompiledQuery(tables.sql, args), args);
+      tables.drop(db);
+      db.setTransactionSuccessful();
+      return results;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private static Cursor queryWithTablesUntilClosed(final SQLiteDatabase db, String sql, Object[] args,
+      List<InList> inLists) {
+    final ExecutionTables tables = new ExecutionTables(sql, inLists);
+    db.beginTransaction();
+    try {
+      tables.create(db, true);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    Cursor cursor;
+    try {
+      cursor = new CompiledQuery(tables.sql, args).query(db, args);
+    } catch (RuntimeException e) {
+      tables.drop(db);
+      throw e;
+    }
+    return new CursorWrapper(cursor) {
+      @Override
+      public void close() {
+        super.close();
+        if (db.isOpen()) {
+          tables.drop(db);
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the query plan of a query with IN lists, with their tables created, empty, while it is explained.
+   */
+  static List<String> explain(SQLiteDatabase db, String sql, Object[] args, List<InList> inLists) {
+    ExecutionTables tables = new ExecutionTables(sql, inLists);
+    db.beginTransaction();
+    try {
+      tables.create(db, false);
+      List<String> details = QueryPlanAnalyzer.explain(db, tables.sql, args);
+      tables.drop(db);
+      db.setTransactionSuccessful();
+      return details;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * The temporary tables of one execution, and the query's SQL with their names. A list may appear more than once,
+   * as through a subquery used twice, but gets a single table.
+   */
+  private static final class ExecutionTables {
+
+    private final String sql;
+    private final Map<String, InList> inListsByTableName = new LinkedHashMap<String, InList>();
+
+    ExecutionTables(String sql, List<InList> inLists) {
+      for (InList inList : inLists) {
+        if (sql.contains(inList.getSubquerySql())) {
+          String executionTableName = newTableName();
+          sql = sql.replace(inList.getSubquerySql(), subquerySql(executionTableName));
+          inListsByTableName.put(executionTableName, inList);
+        }
+      }
+      this.sql = sql;
+    }
+
+    void create(SQLiteDatabase db, boolean filled) {
+      for (Map.Entry<String, InList> entry : inListsByTableName.entrySet()) {
+        InList inList = entry.getValue();
+        db.execSQL("CREATE TEMP TABLE " + entry.getKey()
+            + (inList.longValues != null ? " (value INTEGER PRIMARY KEY)" : " (value PRIMARY KEY)"));
+        if (filled) {
+          fill(db, entry.getKey(), inList);
+        }
+      }
+    }
+
+    /**
+     * Inserts the list's values; those equal to another as SQLite compares them, such as 1 and 1.0, are ignored.
+     */
+    private static void fill(SQLiteDatabase db, String tableName, InList inList) {
+      SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO temp." + tableName + " (value) VALUES (?)");
+      try {
+        for (int i = 0; i < inList.size(); i++) {
+          if (inList.longValues != null) {
+            insert.bindLong(1, inList.longValues[i]);
+          } else {
+            CompiledQuery.bind(insert, 1, inList.values[i]);
+          }
+          insert.executeInsert();
+        }
+      } finally {
+        insert.close();
+      }
+    }
+
+    void drop(SQLiteDatabase db) {
+      for (String tableName : inListsByTableName.keySet()) {
+        db.execSQL("DROP TABLE IF EXISTS temp." + tableName);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,41 @@
+package com.telcontar4.android.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A schema or data change made when upgrading the database to a particular version. Migrations are registered with
+ * {@link AbstractSqliteOpenHelper#addMigration(Migration)} and run in version order by its {@code onUpgrade} method
+ * when {@link AbstractSqliteOpenHelper#upgradeIncludes(int, int, int)} is true for their version.
+ * <p>
+ * Migrations that copy or rewrite large numbers of rows should extend {@link ChunkedMigration} instead.
+ */
+public abstract class Migration {
+
+  private final int version;
+  private final String name;
+
+  /**
+   * @param name identifies the migration in logs and, for chunked migrations, in the persisted progress records, so
+   *          must be unique
+   */
+  protected Migration(int version, String name) {
+    this.version = version;
+    this.name = name;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  protected abstract void migrate(SQLiteDatabase db);
+
+  @Override
+  public String toString() {
+    return name + " (version " + version + ")";
+  }
+
+}
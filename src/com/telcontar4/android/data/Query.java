@@ -3,13 +3,64 @@
  */
 package com.telcontar4.android.data;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Robolectric-friendly replacement for Android's SQLiteQueryBuilder. Provides a fluent interface for generating custom
  * SQL that easily incorporates table and column name constants defined in your Schema class.
+ * <p>
+ * The {@code whereXXXArg} methods add a {@code ?} placeholder to the SQL and collect the value as a bind argument,
+ * so that the same SQL can be reused with different values; see {@link #compile()}. A query that is held as a
+ * constant and shared can be converted to an immutable {@link QueryTemplate} with {@link #toTemplate()}.
+ * <p>
+ * Aggregates, HAVING, CASE expressions, common table expressions and window functions let grouping, totals and
+ * rankings be computed by SQLite rather than by reading every row into Java. Note that common table expressions need
+ * SQLite 3.8.3 (API 21) and window functions SQLite 3.25 (API 30).
+ * <p>
+ * {@link #whereIn(String, long[])} takes lists of any length: those too long to bind are executed by
+ * {@link CompiledQuery#query} in chunks or through a temporary table, so such a query must be run through
+ * {@link #compile()}, as {@link QueryCache} and {@link QueryMonitor} do, rather than from its SQL.
  */
 public class Query {
 
+  /**
+   * The most values {@link #whereIn(String, long[])} binds as arguments for one list. Fewer are bound when the
+   * query's other arguments would otherwise take it past {@link #MAX_BOUND_ARGS}.
+   */
+  public static final int MAX_IN_ARGS = 512;
+
+  /**
+   * SQLite's limit on the arguments of a statement before SQLite 3.32, so on most Android releases.
+   */
+  static final int MAX_BOUND_ARGS = 999;
+
   private final StringBuilder sql;
+  private final List<String> commonTableExpressions = new ArrayList<String>();
+  private final List<Object> withArgs = new ArrayList<Object>();
+  private final StringBuilder groupBy = new StringBuilder();
+  private final StringBuilder having = new StringBuilder();
+  private final List<Object> havingArgs = new ArrayList<Object>();
+  private final StringBuilder orderBy = new StringBuilder();
+  private final List<String> orderByColumns = new ArrayList<String>();
+  private final List<Boolean> orderByAscending = new ArrayList<Boolean>();
+  private final List<Object> bindArgs = new ArrayList<Object>();
+  private final List<String> tableReferences = new ArrayList<String>();
+  private final List<String> tables = new ArrayList<String>();
+  private final List<String> selectColumns = new ArrayList<String>();
+  private final List<String> whereColumns = new ArrayList<String>();
+  private final List<String> joinColumns = new ArrayList<String>();
+  private final List<String> groupByColumns = new ArrayList<String>();
+  private final List<InList> inLists = new ArrayList<InList>();
+  private final List<InList> subqueryInLists = new ArrayList<InList>();
+  private String withClause = "";
+  private boolean recursive;
+  private boolean combinesRows;
+  private String limit = "";
+  private String renderedSql;
   private boolean selectStarted;
   private boolean whereStarted;
   private boolean orStarted;
@@ -25,53 +76,183 @@ public class Query {
         sql.append(", ");
       }
       sql.append(column);
+      selectColumns.add(column);
       selectStarted = true;
     }
     return this;
   }
 
   public Query selectDistinct(String... columns) {
+    combinesRows = true;
     sql.append(" DISTINCT ");
     return select(columns);
   }
 
   public Query count(String alias) {
-    if (selectStarted) {
-      sql.append(", ");
+    combinesRows = true;
+    return select("COUNT(*) " + alias);
+  }
+
+  public Query sum(String column, String alias) {
+    combinesRows = true;
+    return select("SUM(" + column + ") " + alias);
+  }
+
+  public Query avg(String column, String alias) {
+    combinesRows = true;
+    return select("AVG(" + column + ") " + alias);
+  }
+
+  public Query min(String column, String alias) {
+    combinesRows = true;
+    return select("MIN(" + column + ") " + alias);
+  }
+
+  public Query max(String column, String alias) {
+    combinesRows = true;
+    return select("MAX(" + column + ") " + alias);
+  }
+
+  public Query selectCase(Case expression, String alias) {
+    return select(expression.getSql() + " " + alias);
+  }
+
+  /**
+   * Selects a window function, such as {@code ROW_NUMBER()} or {@code SUM(amount)}, computed over the given window,
+   * for running totals and rankings within groups. Needs SQLite 3.25, so API 30 or later.
+   */
+  public Query selectOver(String function, Window window, String alias) {
+    combinesRows = true;
+    return select(function + " OVER (" + window.getSql() + ") " + alias);
+  }
+
+  /**
+   * Adds a common table expression, which the query can then select from or join by name.
+   */
+  public Query with(String name, Query query) {
+    subqueryInLists.addAll(query.getInLists());
+    return addCommonTableExpression(name + " AS (" + query.getSql() + ")", Arrays.asList(query.getBindArgs()),
+        query.getTables());
+  }
+
+  public Query with(String name, QueryTemplate query) {
+    return addCommonTableExpression(name + " AS (" + query.getSql() + ")", query.getBindArgList(),
+        query.getTables());
+  }
+
+  /**
+   * Adds a recursive common table expression: the rows of {@code initial}, followed by those of {@code recursive},
+   * which selects from {@code name} to produce each further set of rows from the previous one, until it produces none.
+   *
+   * @param columns the names of the expression's columns, comma-separated
+   */
+  public Query withRecursive(String name, String columns, Query initial, Query recursive) {
+    this.recursive = true;
+    List<Object> args = new ArrayList<Object>(Arrays.asList(initial.getBindArgs()));
+    args.addAll(Arrays.asList(recursive.getBindArgs()));
+    List<String> cteTables = new ArrayList<String>(initial.getTables());
+    cteTables.addAll(recursive.getTables());
+    cteTables.remove(name);
+    subqueryInLists.addAll(initial.getInLists());
+    subqueryInLists.addAll(recursive.getInLists());
+    return addCommonTableExpression(name + "(" + columns + ") AS (" + initial.getSql() + " UNION ALL "
+        + recursive.getSql() + ")", args, cteTables);
+  }
+
+  private Query addCommonTableExpression(String definition, List<Object> args, List<String> cteTables) {
+    commonTableExpressions.add(definition);
+    withArgs.addAll(args);
+    addTables(cteTables);
+    StringBuilder clause = new StringBuilder(recursive ? "WITH RECURSIVE " : "WITH ");
+    for (int i = 0; i < commonTableExpressions.size(); i++) {
+      clause.append(i == 0 ? "" : ", ").append(commonTableExpressions.get(i));
     }
-    sql.append("COUNT(*) ").append(alias);
-    selectStarted = true;
+    withClause = clause.append(" ").toString();
+    renderedSql = null;
     return this;
   }
 
+  /**
+   * Selects an extract of the matching text of an FTS table, with the matched terms between {@code start} and
+   * {@code end}, for display in search results.
+   */
+  public Query selectSnippet(String ftsTable, String start, String end, String alias) {
+    return select("snippet(" + ftsTable + ", '" + escapeText(start) + "', '" + escapeText(end) + "', '...') "
+        + alias);
+  }
+
   public Query from(String table) {
     sql.append(" FROM ").append(table);
+    addTableReference(table);
+    return this;
+  }
+
+  /**
+   * Selects from a subquery, as for filtering on the results of a window function.
+   */
+  public Query from(Query query, String alias) {
+    sql.append(" FROM (").append(query.getSql()).append(") ").append(alias);
+    bindArgs.addAll(Arrays.asList(query.getBindArgs()));
+    subqueryInLists.addAll(query.getInLists());
+    addTables(query.tables);
     return this;
   }
 
+  private void addTableReference(String table) {
+    tableReferences.add(table);
+    addTable(table.trim().split("\\s+")[0]);
+  }
+
+  private void addTable(String table) {
+    if (!tables.contains(table)) {
+      tables.add(table);
+    }
+  }
+
+  private void addTables(List<String> tables) {
+    for (String table : tables) {
+      addTable(table);
+    }
+  }
+
   public Query innerJoin(String table) {
     sql.append(" INNER JOIN ").append(table);
+    addTableReference(table);
+    return this;
+  }
+
+  public Query innerJoin(QueryTemplate query, String alias) {
+    sql.append(" INNER JOIN (").append(query.getSql()).append(") ").append(alias);
+    bindArgs.addAll(query.getBindArgList());
+    addTables(query.getTables());
     return this;
   }
 
   public Query innerJoin(Query query, String alias) {
     sql.append(" INNER JOIN (").append(query.getSql()).append(") ").append(alias);
+    bindArgs.addAll(Arrays.asList(query.getBindArgs()));
+    subqueryInLists.addAll(query.getInLists());
+    addTables(query.tables);
     return this;
   }
 
   public Query leftOuterJoin(String table) {
     sql.append(" LEFT OUTER JOIN ").append(table);
+    addTableReference(table);
     return this;
   }
 
   public Query on(String fromColumn, String toColumn) {
     sql.append(" ON ").append(fromColumn).append(" = ").append(toColumn);
+    joinColumns.add(fromColumn);
+    joinColumns.add(toColumn);
     return this;
   }
 
   public Query whereEqualTo(String column, String value) {
     prefixWhereSubclause();
     sql.append(column).append(" = ").append(value);
+    whereColumns.add(column);
     return this;
   }
 
@@ -87,37 +268,148 @@ public class Query {
 
   public Query whereEqualToText(String column, String value) {
     prefixWhereSubclause();
-    sql.append(column).append(" = '").append(value).append("'");
+    sql.append(column).append(" = '").append(escapeText(value)).append("'");
+    whereColumns.add(column);
+    return this;
+  }
+
+  private static String escapeText(String value) {
+    return value.replace("'", "''");
+  }
+
+  public Query whereEqualToArg(String column, Object value) {
+    prefixWhereSubclause();
+    sql.append(column).append(" = ?");
+    whereColumns.add(column);
+    bindArgs.add(value);
     return this;
   }
 
   public Query whereNotEqualToText(String column, String value) {
     prefixWhereSubclause();
-    sql.append(column).append(" <> '").append(value).append("'");
+    sql.append(column).append(" <> '").append(escapeText(value)).append("'");
+    return this;
+  }
+
+  public Query whereNotEqualToArg(String column, Object value) {
+    prefixWhereSubclause();
+    sql.append(column).append(" <> ?");
+    bindArgs.add(value);
     return this;
   }
 
   public Query whereIn(String column, String valueList) {
     prefixWhereSubclause();
     sql.append(column).append(" IN (").append(valueList).append(")");
+    whereColumns.add(column);
     return this;
   }
 
+  public Query whereInArgs(String column, Object... values) {
+    prefixWhereSubclause();
+    sql.append(column).append(" IN (");
+    whereColumns.add(column);
+    appendPlaceholders(values);
+    sql.append(")");
+    return this;
+  }
+
+  /**
+   * Restricts the column to a list of values of any length. Up to {@link #MAX_IN_ARGS} values are bound as
+   * arguments, padded to a power of two by repeating the last so that lists of similar length share SQL, and so
+   * SQLite's compiled statement. Longer lists, and those whose padded values would take the arguments bound so far
+   * past SQLite's limit of 999, are executed in chunks or through a temporary table; see {@link InList}.
+   */
+  public Query whereIn(String column, long[] values) {
+    if (!canBind(values.length)) {
+      return whereIn(column, InList.of(values));
+    }
+    Object[] args = new Object[values.length];
+    for (int i = 0; i < values.length; i++) {
+      args[i] = values[i];
+    }
+    return whereInPadded(column, args);
+  }
+
+  public Query whereIn(String column, Collection<?> values) {
+    if (!canBind(values.size())) {
+      return whereIn(column, InList.of(values));
+    }
+    return whereInPadded(column, values.toArray());
+  }
+
+  private boolean canBind(int valueCount) {
+    int boundArgCount = withArgs.size() + bindArgs.size() + havingArgs.size();
+    return valueCount <= MAX_IN_ARGS && boundArgCount + InList.paddedSize(valueCount) <= MAX_BOUND_ARGS;
+  }
+
+  private Query whereInPadded(String column, Object[] values) {
+    prefixWhereSubclause();
+    sql.append(column).append(" IN (");
+    whereColumns.add(column);
+    appendPlaceholders(InList.pad(values));
+    sql.append(")");
+    return this;
+  }
+
+  private Query whereIn(String column, InList inList) {
+    prefixWhereSubclause();
+    sql.append(column).append(" IN ").append(inList.getSubquerySql());
+    whereColumns.add(column);
+    // Rows matched by the rest of an OR would be returned by every chunk.
+    inLists.add(orStarted ? inList : inList.at(bindArgs.size()));
+    return this;
+  }
+
+  private void appendPlaceholders(Object[] values) {
+    for (int i = 0; i < values.length; i++) {
+      sql.append(i == 0 ? "?" : ", ?");
+      bindArgs.add(values[i]);
+    }
+  }
+
   public Query whereNotIn(String column, String valueList) {
     prefixWhereSubclause();
     sql.append(column).append(" NOT IN (").append(valueList).append(")");
     return this;
   }
 
+  public Query whereNotInArgs(String column, Object... values) {
+    prefixWhereSubclause();
+    sql.append(column).append(" NOT IN (");
+    appendPlaceholders(values);
+    sql.append(")");
+    return this;
+  }
+
   public Query whereStartsWith(String column, String prefix) {
     prefixWhereSubclause();
-    sql.append(column).append(" LIKE '").append(prefix).append("%'");
+    sql.append(column).append(" LIKE '").append(escapeText(prefix)).append("%'");
+    return this;
+  }
+
+  public Query whereStartsWithArg(String column, String prefix) {
+    prefixWhereSubclause();
+    sql.append(column).append(" LIKE ?");
+    bindArgs.add(prefix + "%");
+    return this;
+  }
+
+  /**
+   * Restricts the query to rows of an FTS table matching a full-text query, such as {@code "tea* NEAR cup"}, which is
+   * bound as an argument. The FTS table must be named, not aliased; see {@link Table#addFullTextIndex}.
+   */
+  public Query whereMatchesArg(String ftsTable, String matchQuery) {
+    prefixWhereSubclause();
+    sql.append(ftsTable).append(" MATCH ?");
+    bindArgs.add(matchQuery);
     return this;
   }
 
   public Query whereNull(String column) {
     prefixWhereSubclause();
     sql.append(column).append(" IS NULL");
+    whereColumns.add(column);
     return this;
   }
 
@@ -138,27 +430,222 @@ public class Query {
   }
 
   public Query groupBy(String column) {
-    sql.append(" GROUP BY ").append(column);
+    groupBy.append(groupBy.length() == 0 ? " GROUP BY " : ", ").append(column);
+    groupByColumns.add(column);
+    return this;
+  }
+
+  /**
+   * Filters the groups, as in {@code having("COUNT(*) > ?", 10)}; the arguments are bound after those of the WHERE
+   * clause. Conditions from repeated calls must all be true.
+   */
+  public Query having(String condition, Object... args) {
+    having.append(having.length() == 0 ? " HAVING " : " AND ").append(condition);
+    havingArgs.addAll(Arrays.asList(args));
+    renderedSql = null;
     return this;
   }
 
   public Query orderBy(String column, boolean ascending) {
     prefixOrderBySubclause();
-    sql.append(column).append(ascending ? " ASC" : " DESC");
+    orderBy.append(column).append(ascending ? " ASC" : " DESC");
+    orderByColumns.add(column);
+    orderByAscending.add(ascending);
     return this;
   }
 
+  /**
+   * Orders the rows of a full-text query by the number of matches in each, most first. FTS4 has no built-in rank and
+   * Android doesn't allow registering a ranking function, so the matches are counted from {@code offsets()}, which
+   * gives four numbers per match.
+   */
+  public Query orderByRelevance(String ftsTable) {
+    String offsets = "offsets(" + ftsTable + ")";
+    return orderBy("(length(" + offsets + ") - length(replace(" + offsets + ", ' ', '')) + 1) / 4", false);
+  }
+
   private void prefixOrderBySubclause() {
     if (orderByStarted) {
-      sql.append(", ");
+      orderBy.append(", ");
     } else {
-      sql.append(" ORDER BY ");
+      orderBy.append(" ORDER BY ");
       orderByStarted = true;
     }
   }
 
+  public Query limit(int rowCount) {
+    return limit(rowCount, 0);
+  }
+
+  /**
+   * Limits the query to a range of rows. Note that SQLite still computes, and discards, every row before the offset;
+   * for paging through large tables prefer {@link QueryTemplate#seekAfter(Object...)} or {@link QueryPager}.
+   */
+  public Query limit(int rowCount, int offset) {
+    limit = QueryTemplate.limitClause(rowCount, offset);
+    renderedSql = null;
+    return this;
+  }
+
   public String getSql() {
-    return sql.toString();
+    // The builders are only ever appended to, so an unchanged length means an unchanged query.
+    if (renderedSql == null || renderedSql.length() != withClause.length() + sql.length() + groupBy.length()
+        + having.length() + orderBy.length() + limit.length()) {
+      renderedSql = withClause + sql + groupBy + having + orderBy + limit;
+    }
+    return renderedSql;
+  }
+
+  public Object[] getBindArgs() {
+    if (withArgs.isEmpty() && havingArgs.isEmpty()) {
+      return bindArgs.toArray();
+    }
+    List<Object> args = new ArrayList<Object>(withArgs);
+    args.addAll(bindArgs);
+    args.addAll(havingArgs);
+    return args.toArray();
+  }
+
+  /**
+   * Returns the bind arguments as strings, for use with {@code SQLiteDatabase.rawQuery}. Note that SQLite then
+   * compares them as TEXT; {@link #compile()} binds them with their own types.
+   */
+  public String[] getSelectionArgs() {
+    return CompiledQuery.toSelectionArgs(getBindArgs());
+  }
+
+  /**
+   * Returns the names of the tables the query reads, including those of subqueries.
+   */
+  public List<String> getTables() {
+    return Collections.unmodifiableList(tables);
+  }
+
+  /**
+   * Returns the tables named in the FROM and JOIN clauses, as given, so possibly followed by an alias.
+   */
+  List<String> getTableReferences() {
+    return Collections.unmodifiableList(tableReferences);
+  }
+
+  List<String> getSelectColumns() {
+    return Collections.unmodifiableList(selectColumns);
+  }
+
+  /**
+   * Returns the columns constrained by equality, IN or IS NULL predicates, which an index can be searched on.
+   */
+  List<String> getWhereColumns() {
+    return Collections.unmodifiableList(whereColumns);
+  }
+
+  List<String> getJoinColumns() {
+    return Collections.unmodifiableList(joinColumns);
+  }
+
+  List<String> getGroupByColumns() {
+    return Collections.unmodifiableList(groupByColumns);
+  }
+
+  List<String> getOrderByColumns() {
+    return Collections.unmodifiableList(orderByColumns);
+  }
+
+  /**
+   * Returns the query's IN lists too long to bind, with the index their values would be bound at were the query
+   * executed in chunks, for those it can be.
+   */
+  List<InList> getInLists() {
+    boolean chunkable = !combinesRows && groupBy.length() == 0 && having.length() == 0 && orderBy.length() == 0
+        && limit.length() == 0;
+    List<InList> all = new ArrayList<InList>();
+    for (InList inList : inLists) {
+      all.add(inList.at(chunkable && inList.getArgIndex() >= 0 ? withArgs.size() + inList.getArgIndex() : -1));
+    }
+    for (InList inList : subqueryInLists) {
+      all.add(inList.at(-1));
+    }
+    return all;
+  }
+
+  public CompiledQuery compile() {
+    return new CompiledQuery(getSql(), getBindArgs(), getInLists());
+  }
+
+  /**
+   * Returns an immutable copy of the query. A query with IN lists too long to bind can't be copied, as its values
+   * aren't held in its bind arguments; compile it instead.
+   */
+  public QueryTemplate toTemplate() {
+    if (!inLists.isEmpty() || !subqueryInLists.isEmpty()) {
+      throw new IllegalStateException("IN lists of more than " + MAX_IN_ARGS + " values can't be templated: "
+          + getSql());
+    }
+    boolean[] ascending = new boolean[orderByAscending.size()];
+    for (int i = 0; i < ascending.length; i++) {
+      ascending[i] = orderByAscending.get(i);
+    }
+    return new QueryTemplate(withClause + sql, whereStarted, groupBy.toString() + having, orderBy.toString(),
+        orderByColumns.toArray(new String[orderByColumns.size()]), ascending, limit, getBindArgs(),
+        tables.toArray(new String[tables.size()]));
+  }
+
+  /**
+   * A CASE expression, built from WHEN conditions and their results, which are SQL expressions; text results must be
+   * quoted.
+   *
+   * <pre>
+   * new Query.Case().when(&quot;amount &lt; 0&quot;, &quot;'debit'&quot;).otherwise(&quot;'credit'&quot;)
+   * </pre>
+   */
+  public static class Case {
+
+    private final StringBuilder sql = new StringBuilder("CASE");
+
+    public Case when(String condition, String result) {
+      sql.append(" WHEN ").append(condition).append(" THEN ").append(result);
+      return this;
+    }
+
+    public Case otherwise(String result) {
+      sql.append(" ELSE ").append(result);
+      return this;
+    }
+
+    public String getSql() {
+      return sql.toString() + " END";
+    }
+
+  }
+
+  /**
+   * The window of rows a window function is computed over: the rows sharing the current row's PARTITION BY values,
+   * in ORDER BY order.
+   */
+  public static class Window {
+
+    private final StringBuilder partitionBy = new StringBuilder();
+    private final StringBuilder orderBy = new StringBuilder();
+
+    public Window partitionBy(String... columns) {
+      for (String column : columns) {
+        partitionBy.append(partitionBy.length() == 0 ? "PARTITION BY " : ", ").append(column);
+      }
+      return this;
+    }
+
+    public Window orderBy(String column, boolean ascending) {
+      orderBy.append(orderBy.length() == 0 ? "ORDER BY " : ", ").append(column).append(ascending ? " ASC" : " DESC");
+      return this;
+    }
+
+    public String getSql() {
+      if (partitionBy.length() > 0 && orderBy.length() > 0) {
+        return partitionBy + " " + orderBy;
+      }
+      return partitionBy.toString() + orderBy;
+    }
+
   }
 
 }
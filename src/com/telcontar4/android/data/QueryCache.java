@@ -0,0 +1,173 @@
+package com.telcontar4.android.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+/**
+ * Caches query results, keyed on their SQL and bind arguments, as {@link ColumnarCursor} snapshots. Each call
+ * returns a new cursor over the cached snapshot, so callers may move and close it as they would any other.
+ * <p>
+ * Entries are evicted least recently used first once the estimated size of the snapshots exceeds the maximum, and
+ * are invalidated when any table the query reads is reported changed through {@link TableChangeNotifier}, as it is
+ * by the library's write paths. A cache holds the results of a single database; {@link #close()} stops it listening
+ * for changes. Like {@link ColumnarCursor}, it needs API 11 or later.
+ *
+ * <pre>
+ * QueryCache cache = new QueryCache(512 * 1024);
+ * Cursor cursor = cache.query(db, COUNTRIES_BY_NAME);
+ * </pre>
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class QueryCache implements TableChangeNotifier.Listener {
+
+  private final long maxSizeBytes;
+  private final LinkedHashMap<QueryKey, Entry> entries = new LinkedHashMap<QueryKey, Entry>(16, 0.75f, true);
+  private long sizeBytes;
+  private long invalidationCount;
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+
+  public QueryCache(long maxSizeBytes) {
+    this.maxSizeBytes = maxSizeBytes;
+    TableChangeNotifier.addListener(this);
+  }
+
+  public Cursor query(SQLiteDatabase db, Query query) {
+    return query(db, query.compile(), query.getTables());
+  }
+
+  public Cursor query(SQLiteDatabase db, QueryTemplate template) {
+    return query(db, template.compile(), template.getTables());
+  }
+
+  private Cursor query(SQLiteDatabase db, CompiledQuery query, List<String> tables) {
+    Object[] args = query.getBindArgs();
+    QueryKey key = new QueryKey(query.getSql(), args);
+    long invalidationCountBeforeQuery;
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        hitCount++;
+        return entry.snapshot.duplicate();
+      }
+      missCount++;
+      invalidationCountBeforeQuery = invalidationCount;
+    }
+    ColumnarCursor snapshot = ColumnarCursor.snapshot(db, query, args);
+    synchronized (this) {
+      // Don't cache a result that an invalidation during the query may have made stale.
+      if (invalidationCount == invalidationCountBeforeQuery) {
+        put(key, new Entry(snapshot, tables.toArray(new String[tables.size()])));
+      }
+    }
+    return snapshot.duplicate();
+  }
+
+  private void put(QueryKey key, Entry entry) {
+    if (entry.sizeBytes > maxSizeBytes) {
+      return;
+    }
+    Entry replaced = entries.put(key, entry);
+    if (replaced != null) {
+      sizeBytes -= replaced.sizeBytes;
+    }
+    sizeBytes += entry.sizeBytes;
+    Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+    while (sizeBytes > maxSizeBytes) {
+      sizeBytes -= leastRecentlyUsed.next().sizeBytes;
+      leastRecentlyUsed.remove();
+      evictionCount++;
+    }
+  }
+
+  @Override
+  public synchronized void onTablesChanged(String... tableNames) {
+    invalidationCount++;
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.readsAny(tableNames)) {
+        sizeBytes -= entry.sizeBytes;
+        iterator.remove();
+      }
+    }
+  }
+
+  @Override
+  public void onAllTablesChanged() {
+    clear();
+  }
+
+  public synchronized void clear() {
+    invalidationCount++;
+    entries.clear();
+    sizeBytes = 0;
+  }
+
+  /**
+   * Empties the cache and stops it listening for table changes.
+   */
+  public void close() {
+    TableChangeNotifier.removeListener(this);
+    clear();
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  public synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "QueryCache[" + entries.size() + " entries, " + sizeBytes + " of " + maxSizeBytes + " bytes, " + hitCount
+        + " hits, " + missCount + " misses, " + evictionCount + " evictions]";
+  }
+
+  private static final class Entry {
+
+    private final ColumnarCursor snapshot;
+    private final String[] tables;
+    private final long sizeBytes;
+
+    Entry(ColumnarCursor snapshot, String[] tables) {
+      this.snapshot = snapshot;
+      this.tables = tables;
+      sizeBytes = snapshot.getSizeEstimateBytes();
+    }
+
+    boolean readsAny(String[] tableNames) {
+      for (String tableName : tableNames) {
+        for (String table : tables) {
+          if (table.equalsIgnoreCase(tableName)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+  }
+
+}
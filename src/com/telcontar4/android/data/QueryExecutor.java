@@ -0,0 +1,273 @@
+package com.telcontar4.android.data;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+/**
+ * Runs queries on a fixed pool of background threads, returning futures of their results. Requests for the same
+ * SQL and bind arguments made while one is already queued or running share its execution, and
+ * {@link Priority#VISIBLE} requests run before {@link Priority#PREFETCH} ones.
+ * <p>
+ * Results are read into a {@link ColumnarCursor} on the worker thread, and each future returns its own cursor over
+ * it, so callers sharing an execution don't interfere. Cancelling a future cancels the execution once every future
+ * sharing it has been cancelled. Queries are run against a {@link Source}, which can be implemented over stub
+ * cursors for tests on the JVM, so a query whose IN lists are too long to bind, which only {@link CompiledQuery}
+ * can execute, can't be submitted. Like {@link ColumnarCursor}, the executor needs API 11 or later.
+ *
+ * <pre>
+ * QueryExecutor executor = new QueryExecutor(QueryExecutor.source(db), 2);
+ * Future&lt;Cursor&gt; items = executor.submit(ITEMS_BY_NAME, QueryExecutor.Priority.VISIBLE);
+ * </pre>
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class QueryExecutor {
+
+  /**
+   * The priority of a request; requests of equal priority run in the order submitted.
+   */
+  public enum Priority {
+    /** Results that are about to be shown. */
+    VISIBLE,
+    /** Results that may be needed later. */
+    PREFETCH
+  }
+
+  /**
+   * Executes SQL for the executor.
+   */
+  public interface Source {
+
+    Cursor query(String sql, Object[] args);
+
+  }
+
+  private final Source source;
+  private final ThreadPoolExecutor executor;
+  private final ConcurrentMap<QueryKey, Execution> inFlight = new ConcurrentHashMap<QueryKey, Execution>();
+  private final AtomicLong sequence = new AtomicLong();
+
+  public QueryExecutor(Source source, int threads) {
+    this.source = source;
+    executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new PriorityBlockingQueue<Runnable>(), new WorkerThreadFactory());
+  }
+
+  /**
+   * Returns a source that runs queries against the database, binding arguments with their own types.
+   */
+  public static Source source(final SQLiteDatabase db) {
+    return new Source() {
+      @Override
+      public Cursor query(String sql, Object[] args) {
+        return new CompiledQuery(sql, args).query(db, args);
+      }
+    };
+  }
+
+  public Future<Cursor> submit(Query query, Priority priority) {
+    return submit(query.compile(), priority, query.getBindArgs());
+  }
+
+  public Future<Cursor> submit(QueryTemplate template, Priority priority) {
+    return submit(template.getSql(), template.getBindArgs(), priority);
+  }
+
+  public Future<Cursor> submit(CompiledQuery query, Priority priority, Object... args) {
+    if (query.hasInLists()) {
+      throw new IllegalArgumentException("IN lists of more than " + Query.MAX_IN_ARGS
+          + " values can't be executed from SQL: " + query.getSql());
+    }
+    return submit(query.getSql(), args, priority);
+  }
+
+  private Future<Cursor> submit(String sql, Object[] args, Priority priority) {
+    QueryKey key = new QueryKey(sql, args);
+    while (true) {
+      Execution execution = inFlight.get(key);
+      if (execution != null) {
+        if (execution.subscribe(priority)) {
+          return new QueryFuture(execution);
+        }
+        inFlight.remove(key, execution);
+      } else {
+        execution = new Execution(key, priority, sequence.getAndIncrement());
+        if (inFlight.putIfAbsent(key, execution) == null) {
+          executor.execute(execution);
+          return new QueryFuture(execution);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of executions queued or running.
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  /**
+   * Stops accepting requests; those already submitted are completed.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * A single execution of a query, shared by the futures of coalesced requests. Executions are ordered by priority
+   * and then by the order they were submitted.
+   */
+  private final class Execution extends FutureTask<ColumnarCursor> implements Comparable<Execution> {
+
+    private final QueryKey key;
+    private final long sequenceNumber;
+    private volatile Priority priority;
+    private int subscribers = 1;
+
+    Execution(final QueryKey key, Priority priority, long sequenceNumber) {
+      super(new Callable<ColumnarCursor>() {
+        @Override
+        public ColumnarCursor call() {
+          Cursor cursor = source.query(key.getSql(), key.getArgs());
+          try {
+            return ColumnarCursor.snapshot(cursor);
+          } finally {
+            cursor.close();
+          }
+        }
+      });
+      this.key = key;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * Adds a request to the execution, raising its priority if it is still queued, or returns false if it has
+     * completed or been cancelled.
+     */
+    synchronized boolean subscribe(Priority requestPriority) {
+      if (subscribers == 0 || isDone()) {
+        return false;
+      }
+      subscribers++;
+      // A queued execution must be removed from the queue to change its position there.
+      if (requestPriority.compareTo(priority) < 0 && executor.remove(this)) {
+        priority = requestPriority;
+        executor.execute(this);
+      }
+      return true;
+    }
+
+    synchronized boolean unsubscribe(boolean mayInterruptIfRunning) {
+      if (isDone()) {
+        return false;
+      }
+      if (--subscribers == 0) {
+        cancel(mayInterruptIfRunning);
+        executor.remove(this);
+      }
+      return true;
+    }
+
+    @Override
+    protected void done() {
+      inFlight.remove(key, this);
+    }
+
+    @Override
+    public int compareTo(Execution other) {
+      int byPriority = priority.compareTo(other.priority);
+      if (byPriority != 0) {
+        return byPriority;
+      }
+      return sequenceNumber < other.sequenceNumber ? -1 : (sequenceNumber == other.sequenceNumber ? 0 : 1);
+    }
+
+  }
+
+  /**
+   * One request's view of a possibly shared execution.
+   */
+  private static final class QueryFuture implements Future<Cursor> {
+
+    private final Execution execution;
+    private volatile boolean cancelled;
+
+    QueryFuture(Execution execution) {
+      this.execution = execution;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      synchronized (this) {
+        if (cancelled || !execution.unsubscribe(mayInterruptIfRunning)) {
+          return false;
+        }
+        cancelled = true;
+      }
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return cancelled || execution.isDone();
+    }
+
+    @Override
+    public Cursor get() throws InterruptedException, ExecutionException {
+      checkNotCancelled();
+      return execution.get().duplicate();
+    }
+
+    @Override
+    public Cursor get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+        TimeoutException {
+      checkNotCancelled();
+      return execution.get(timeout, unit).duplicate();
+    }
+
+    private void checkNotCancelled() {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+    }
+
+  }
+
+  private static class WorkerThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "QueryExecutor-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(Thread.NORM_PRIORITY - 1);
+      return thread;
+    }
+
+  }
+
+}
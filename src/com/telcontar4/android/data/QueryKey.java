@@ -0,0 +1,47 @@
+package com.telcontar4.android.data;
+
+import java.util.Arrays;
+
+/**
+ * Identifies a query execution by its SQL and bind arguments, comparing blob arguments by content.
+ */
+final class QueryKey {
+
+  private final String sql;
+  private final Object[] args;
+  private final int hashCode;
+
+  QueryKey(String sql, Object[] args) {
+    this.sql = sql;
+    this.args = args;
+    hashCode = 31 * sql.hashCode() + Arrays.deepHashCode(args);
+  }
+
+  String getSql() {
+    return sql;
+  }
+
+  Object[] getArgs() {
+    return args;
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof QueryKey)) {
+      return false;
+    }
+    QueryKey other = (QueryKey) o;
+    return hashCode == other.hashCode && sql.equals(other.sql) && Arrays.deepEquals(args, other.args);
+  }
+
+  @Override
+  public String toString() {
+    return sql + " " + Arrays.deepToString(args);
+  }
+
+}
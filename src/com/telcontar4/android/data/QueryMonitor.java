@@ -0,0 +1,236 @@
+package com.telcontar4.android.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Executes queries while recording, for each distinct SQL text, the number of executions, rows returned, time taken
+ * to prepare the query and time taken to fill its cursor window, and a histogram of total times. Queries taking longer
+ * than the slow-query threshold are logged as warnings, optionally with their {@code EXPLAIN QUERY PLAN} output.
+ * <p>
+ * Counters are updated without locking, so a monitor can be shared by all of an application's threads;
+ * {@link #getStatistics()} returns a snapshot for reporting to telemetry.
+ */
+public class QueryMonitor {
+
+  private static final String LOG_TAG = QueryMonitor.class.getSimpleName();
+
+  /**
+   * Upper bounds, in milliseconds, of the histogram buckets; the last bucket is unbounded.
+   */
+  private static final long[] BUCKET_LIMITS_MILLIS = { 1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024 };
+
+  private final long slowQueryThresholdMillis;
+  private final boolean explainingSlowQueries;
+  private final ConcurrentMap<String, Counters> countersBySql = new ConcurrentHashMap<String, Counters>();
+
+  /**
+   * @param slowQueryThresholdMillis the total time above which a query is logged as slow
+   * @param explainingSlowQueries whether to log the query plan of slow queries, which means executing EXPLAIN QUERY
+   *          PLAN for them
+   */
+  public QueryMonitor(long slowQueryThresholdMillis, boolean explainingSlowQueries) {
+    this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+    this.explainingSlowQueries = explainingSlowQueries;
+  }
+
+  public Cursor query(SQLiteDatabase db, Query query) {
+    return query(db, query.compile());
+  }
+
+  public Cursor query(SQLiteDatabase db, QueryTemplate template) {
+    return query(db, template.compile());
+  }
+
+  public Cursor query(SQLiteDatabase db, CompiledQuery query) {
+    return query(db, query, query.getBindArgs());
+  }
+
+  /**
+   * Executes the query and fills its cursor's window, so that the cost of running the query is measured here rather
+   * than on first access to the cursor.
+   */
+  public Cursor query(SQLiteDatabase db, CompiledQuery query, Object... args) {
+    long startNanos = System.nanoTime();
+    Cursor cursor = query.query(db, args);
+    long preparedNanos = System.nanoTime();
+    int rows = cursor.getCount();
+    long filledNanos = System.nanoTime();
+    record(query.getSql(), rows, preparedNanos - startNanos, filledNanos - preparedNanos);
+    long totalMillis = (filledNanos - startNanos) / 1000000L;
+    if (totalMillis >= slowQueryThresholdMillis) {
+      logSlowQuery(db, query, args, rows, totalMillis);
+    }
+    return cursor;
+  }
+
+  /**
+   * Records the execution of a query run elsewhere.
+   */
+  public void record(String sql, int rows, long prepareNanos, long fillNanos) {
+    Counters counters = countersBySql.get(sql);
+    if (counters == null) {
+      Counters newCounters = new Counters();
+      counters = countersBySql.putIfAbsent(sql, newCounters);
+      if (counters == null) {
+        counters = newCounters;
+      }
+    }
+    counters.record(rows, prepareNanos, fillNanos);
+  }
+
+  private void logSlowQuery(SQLiteDatabase db, CompiledQuery query, Object[] args, int rows, long totalMillis) {
+    StringBuilder message = new StringBuilder("Slow query (").append(totalMillis).append(" ms, ").append(rows)
+        .append(" rows): ").append(query.getSql());
+    if (explainingSlowQueries) {
+      for (String detail : QueryPlanAnalyzer.explain(db, query, args)) {
+        message.append("\n  ").append(detail);
+      }
+    }
+    Log.w(LOG_TAG, message.toString());
+  }
+
+  /**
+   * Returns a snapshot of the statistics recorded for each distinct SQL text.
+   */
+  public List<Statistics> getStatistics() {
+    List<Statistics> statistics = new ArrayList<Statistics>(countersBySql.size());
+    for (Map.Entry<String, Counters> entry : countersBySql.entrySet()) {
+      statistics.add(entry.getValue().snapshot(entry.getKey()));
+    }
+    return statistics;
+  }
+
+  public void reset() {
+    countersBySql.clear();
+  }
+
+  /**
+   * Lock-free counters for a single SQL text.
+   */
+  private static class Counters {
+
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong prepareNanos = new AtomicLong();
+    private final AtomicLong fillNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_LIMITS_MILLIS.length + 1);
+
+    void record(int rowCount, long prepare, long fill) {
+      executions.incrementAndGet();
+      rows.addAndGet(rowCount);
+      prepareNanos.addAndGet(prepare);
+      fillNanos.addAndGet(fill);
+      long total = prepare + fill;
+      long max;
+      while (total > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, total)) {
+        // Retry until the maximum is at least this total.
+      }
+      histogram.incrementAndGet(bucketOf(total / 1000000L));
+    }
+
+    private static int bucketOf(long millis) {
+      int bucket = 0;
+      while (bucket < BUCKET_LIMITS_MILLIS.length && millis >= BUCKET_LIMITS_MILLIS[bucket]) {
+        bucket++;
+      }
+      return bucket;
+    }
+
+    Statistics snapshot(String sql) {
+      long[] bucketCounts = new long[histogram.length()];
+      for (int i = 0; i < bucketCounts.length; i++) {
+        bucketCounts[i] = histogram.get(i);
+      }
+      return new Statistics(sql, executions.get(), rows.get(), prepareNanos.get(), fillNanos.get(), maxNanos.get(),
+          bucketCounts);
+    }
+
+  }
+
+  /**
+   * The statistics recorded for a single SQL text. As the counters are read individually, a snapshot taken while
+   * queries are executing may be very slightly inconsistent.
+   */
+  public static final class Statistics {
+
+    private final String sql;
+    private final long executions;
+    private final long rows;
+    private final long prepareNanos;
+    private final long fillNanos;
+    private final long maxNanos;
+    private final long[] histogram;
+
+    Statistics(String sql, long executions, long rows, long prepareNanos, long fillNanos, long maxNanos,
+        long[] histogram) {
+      this.sql = sql;
+      this.executions = executions;
+      this.rows = rows;
+      this.prepareNanos = prepareNanos;
+      this.fillNanos = fillNanos;
+      this.maxNanos = maxNanos;
+      this.histogram = histogram;
+    }
+
+    public String getSql() {
+      return sql;
+    }
+
+    public long getExecutions() {
+      return executions;
+    }
+
+    public long getRows() {
+      return rows;
+    }
+
+    public long getPrepareNanos() {
+      return prepareNanos;
+    }
+
+    public long getFillNanos() {
+      return fillNanos;
+    }
+
+    public long getMaxNanos() {
+      return maxNanos;
+    }
+
+    public long getMeanNanos() {
+      return executions == 0 ? 0 : (prepareNanos + fillNanos) / executions;
+    }
+
+    /**
+     * Returns the upper bounds, in milliseconds, of all but the last of the histogram buckets.
+     */
+    public static long[] getHistogramBucketLimitsMillis() {
+      return BUCKET_LIMITS_MILLIS.clone();
+    }
+
+    /**
+     * Returns the number of executions whose total time fell in each histogram bucket.
+     */
+    public long[] getHistogram() {
+      return histogram.clone();
+    }
+
+    @Override
+    public String toString() {
+      return executions + " executions, " + rows + " rows, mean " + getMeanNanos() / 1000000L + " ms, max "
+          + maxNanos / 1000000L + " ms: " + sql;
+    }
+
+  }
+
+}
@@ -0,0 +1,109 @@
+package com.telcontar4.android.data;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import android.annotation.SuppressLint;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+/**
+ * Iterates over the results of an ordered query one page at a time, using keyset pagination (see
+ * {@link QueryTemplate#seekAfter(Object...)}) so that each page costs the same however far into the results it is.
+ * Each page's cursor is queried on demand and must be closed by the caller.
+ * <p>
+ * The ORDER BY columns must be included in the select list, and together should identify a row uniquely (adding
+ * the ID column as the last ORDER BY term ensures this). They must also be NOT NULL, as no row compares greater than
+ * a null key; a page ending with one throws IllegalStateException. When the final page is exactly full, one
+ * further, empty, page is returned.
+ */
+public class QueryPager implements Iterator<Cursor> {
+
+  private final SQLiteDatabase db;
+  private final QueryTemplate template;
+  private final int pageSize;
+  private final String[] keyColumnNames;
+
+  private Object[] lastKeyValues;
+  private boolean finished;
+
+  public QueryPager(SQLiteDatabase db, QueryTemplate template, int pageSize) {
+    String[] orderByColumns = template.getOrderByColumns();
+    if (orderByColumns.length == 0) {
+      throw new IllegalArgumentException("Paging requires an ORDER BY clause: " + template.getSql());
+    } else if (pageSize < 1) {
+      throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+    }
+    this.db = db;
+    this.template = template;
+    this.pageSize = pageSize;
+    keyColumnNames = new String[orderByColumns.length];
+    for (int i = 0; i < orderByColumns.length; i++) {
+      keyColumnNames[i] = orderByColumns[i].substring(orderByColumns[i].lastIndexOf('.') + 1);
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !finished;
+  }
+
+  @Override
+  public Cursor next() {
+    if (finished) {
+      throw new NoSuchElementException();
+    }
+    QueryTemplate page = lastKeyValues == null ? template : template.seekAfter(lastKeyValues);
+    Cursor cursor = page.withLimit(pageSize).compile().query(db);
+    if (cursor.getCount() < pageSize) {
+      finished = true;
+    } else {
+      cursor.moveToLast();
+      try {
+        lastKeyValues = readKeyValues(cursor);
+      } catch (RuntimeException e) {
+        cursor.close();
+        throw e;
+      }
+      cursor.moveToPosition(-1);
+    }
+    return cursor;
+  }
+
+  @SuppressLint("NewApi")
+  private Object[] readKeyValues(Cursor cursor) {
+    Object[] keyValues = new Object[keyColumnNames.length];
+    for (int i = 0; i < keyColumnNames.length; i++) {
+      int columnIndex = cursor.getColumnIndexOrThrow(keyColumnNames[i]);
+      if (cursor.isNull(columnIndex)) {
+        throw new IllegalStateException("Paging requires NOT NULL ORDER BY columns, but " + keyColumnNames[i]
+            + " is null: " + template.getSql());
+      } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+        // Text keys are converted back by the affinity of INTEGER and REAL columns.
+        keyValues[i] = cursor.getString(columnIndex);
+      } else {
+        switch (cursor.getType(columnIndex)) {
+        case Cursor.FIELD_TYPE_INTEGER:
+          keyValues[i] = cursor.getLong(columnIndex);
+          break;
+        case Cursor.FIELD_TYPE_FLOAT:
+          keyValues[i] = cursor.getDouble(columnIndex);
+          break;
+        case Cursor.FIELD_TYPE_BLOB:
+          keyValues[i] = cursor.getBlob(columnIndex);
+          break;
+        default:
+          keyValues[i] = cursor.getString(columnIndex);
+        }
+      }
+    }
+    return keyValues;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+}
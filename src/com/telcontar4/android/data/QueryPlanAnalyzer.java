@@ -0,0 +1,389 @@
+package com.telcontar4.android.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Runs {@code EXPLAIN QUERY PLAN} for registered queries and reports full table scans, temporary B-trees built for
+ * ORDER BY, GROUP BY or DISTINCT, and index searches that must also read the table. Where the query's WHERE, JOIN,
+ * ORDER BY and SELECT columns allow, each finding suggests a {@link Table.Index} that would avoid it.
+ * <p>
+ * Intended for tests run against a database created from the same {@link Table} definitions, so that query
+ * performance regressions are caught before release:
+ *
+ * <pre>
+ * QueryPlanAnalyzer analyzer = new QueryPlanAnalyzer(Schema.TABLES).register(&quot;itemsByName&quot;, ITEMS_BY_NAME);
+ * QueryPlanAnalyzer.Report report = analyzer.analyze(db);
+ * assertTrue(report.toString(), report.getFindings(QueryPlanAnalyzer.Kind.TABLE_SCAN).isEmpty());
+ * </pre>
+ *
+ * The plan output is not a stable interface and its wording differs between SQLite versions; both the older
+ * {@code SCAN TABLE items} and the newer {@code SCAN items} forms are recognized.
+ */
+public class QueryPlanAnalyzer {
+
+  /**
+   * The kinds of problem found in query plans.
+   */
+  public enum Kind {
+    /** Every row of a table is read. */
+    TABLE_SCAN,
+    /** Rows are sorted or grouped in a temporary B-tree rather than read in index order. */
+    TEMP_B_TREE,
+    /** An index is searched, but the table must also be read for the remaining columns. */
+    NON_COVERING_INDEX
+  }
+
+  private static final Pattern SIMPLE_COLUMN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+  private final Map<String, Table> tablesByName = new LinkedHashMap<String, Table>();
+  private final Map<String, Query> queriesByName = new LinkedHashMap<String, Query>();
+
+  /**
+   * @param tables the table definitions the database was created from, used to resolve unqualified column names and
+   *          to check suggestions against the declared indexes
+   */
+  public QueryPlanAnalyzer(Table... tables) {
+    for (Table table : tables) {
+      tablesByName.put(table.getName(), table);
+    }
+  }
+
+  public QueryPlanAnalyzer register(String name, Query query) {
+    queriesByName.put(name, query);
+    return this;
+  }
+
+  public Report analyze(SQLiteDatabase db) {
+    List<Finding> findings = new ArrayList<Finding>();
+    for (Map.Entry<String, Query> entry : queriesByName.entrySet()) {
+      analyze(db, entry.getKey(), entry.getValue(), findings);
+    }
+    return new Report(findings);
+  }
+
+  /**
+   * Returns the {@code detail} column of the query plan, one element per step. The tables of any IN lists too long
+   * to bind are created for the duration.
+   */
+  static List<String> explain(SQLiteDatabase db, CompiledQuery query, Object[] args) {
+    if (query.hasInLists()) {
+      return InList.explain(db, query.getSql(), args, query.getInLists());
+    }
+    return explain(db, query.getSql(), args);
+  }
+
+  static List<String> explain(SQLiteDatabase db, String sql, Object[] args) {
+    List<String> details = new ArrayList<String>();
+    Cursor plan = new CompiledQuery("EXPLAIN QUERY PLAN " + sql, args).query(db, args);
+    try {
+      int detailIndex = plan.getColumnIndexOrThrow("detail");
+      while (plan.moveToNext()) {
+        details.add(plan.getString(detailIndex));
+      }
+    } finally {
+      plan.close();
+    }
+    return details;
+  }
+
+  private void analyze(SQLiteDatabase db, String queryName, Query query, List<Finding> findings) {
+    QueryColumns columns = new QueryColumns(query);
+    for (String detail : explain(db, query.compile(), query.getBindArgs())) {
+      if (detail.contains("TEMP B-TREE")) {
+        findings.add(newTempBTreeFinding(queryName, query, detail, columns));
+      } else if (detail.startsWith("SCAN ") || detail.startsWith("SEARCH ")) {
+        String tableName = columns.resolveTable(parseTableReference(detail));
+        if (tableName == null) {
+          // A subquery, a constant row or a table we can't identify.
+        } else if (detail.startsWith("SCAN ") && !detail.contains(" INDEX ")
+            && !detail.contains(" PRIMARY KEY")) {
+          findings.add(newFinding(queryName, query, Kind.TABLE_SCAN, detail, tableName,
+              columns.getSearchColumns(tableName, true)));
+        } else if (detail.contains(" USING INDEX ") && columns.isCoverable(tableName)) {
+          List<String> covering = columns.getSearchColumns(tableName, true);
+          covering.addAll(columns.getSelectColumns(tableName));
+          findings.add(newFinding(queryName, query, Kind.NON_COVERING_INDEX, detail, tableName,
+              new ArrayList<String>(new LinkedHashSet<String>(covering))));
+        }
+      }
+    }
+  }
+
+  private Finding newTempBTreeFinding(String queryName, Query query, String detail, QueryColumns columns) {
+    String tableName = columns.getFirstTable();
+    if (tableName == null) {
+      return new Finding(queryName, query.getSql(), Kind.TEMP_B_TREE, detail, null, null, null);
+    }
+    List<String> indexColumns = columns.getSearchColumns(tableName, false);
+    if (detail.contains("GROUP BY")) {
+      indexColumns.addAll(columns.getGroupByColumns(tableName));
+    } else if (detail.contains("ORDER BY")) {
+      indexColumns.addAll(columns.getOrderByColumns(tableName));
+    }
+    return newFinding(queryName, query, Kind.TEMP_B_TREE, detail, tableName, indexColumns);
+  }
+
+  private Finding newFinding(String queryName, Query query, Kind kind, String detail, String tableName,
+      List<String> indexColumns) {
+    Table table = tablesByName.get(tableName);
+    if (table == null || indexColumns.isEmpty()) {
+      return new Finding(queryName, query.getSql(), kind, detail, tableName, null, null);
+    }
+    for (Table.Index index : table.getIndexes()) {
+      // Expression and partial indexes only serve queries written to match them.
+      if (!index.isExpressionIndex() && !index.isPartial() && startsWith(index.getColumnNames(), indexColumns)) {
+        return new Finding(queryName, query.getSql(), kind, detail, tableName, null, "declared index "
+            + index.getName() + " was not used; check that it was created and that ANALYZE has been run");
+      }
+    }
+    StringBuilder indexName = new StringBuilder(tableName);
+    for (String column : indexColumns) {
+      indexName.append('_').append(column);
+    }
+    Table.Index suggestion = table.newIndex(indexName.append("_idx").toString(),
+        indexColumns.toArray(new String[indexColumns.size()]));
+    return new Finding(queryName, query.getSql(), kind, detail, tableName, suggestion, null);
+  }
+
+  private static boolean startsWith(List<String> columns, List<String> prefix) {
+    return columns.size() >= prefix.size() && columns.subList(0, prefix.size()).equals(prefix);
+  }
+
+  /**
+   * Returns the table name or alias following SCAN or SEARCH, as in {@code SCAN TABLE items AS i USING ...} or
+   * {@code SEARCH i USING ...}.
+   */
+  private static String parseTableReference(String detail) {
+    String rest = detail.substring(detail.indexOf(' ') + 1);
+    if (rest.startsWith("TABLE ")) {
+      rest = rest.substring("TABLE ".length());
+    }
+    String[] words = rest.split(" ");
+    if (words.length >= 3 && words[1].equals("AS")) {
+      return words[2];
+    }
+    return words[0];
+  }
+
+  /**
+   * The columns a query uses, grouped by the table they belong to.
+   */
+  private class QueryColumns {
+
+    private final Query query;
+    private final Map<String, String> tablesByAlias = new LinkedHashMap<String, String>();
+
+    QueryColumns(Query query) {
+      this.query = query;
+      for (String reference : query.getTableReferences()) {
+        String[] words = reference.trim().split("\\s+");
+        String alias = words[words.length - 1];
+        tablesByAlias.put(words[0], words[0]);
+        tablesByAlias.put(alias, words[0]);
+      }
+    }
+
+    String resolveTable(String nameOrAlias) {
+      return tablesByAlias.get(nameOrAlias);
+    }
+
+    String getFirstTable() {
+      return tablesByAlias.isEmpty() ? null : tablesByAlias.values().iterator().next();
+    }
+
+    /**
+     * Returns the table a column belongs to, from its qualifier or, if it is unqualified, from the table
+     * definitions, or null if it can't be determined.
+     */
+    private String resolveColumnTable(String column) {
+      int dot = column.indexOf('.');
+      if (dot >= 0) {
+        return tablesByAlias.get(column.substring(0, dot));
+      }
+      Set<String> tableNames = new LinkedHashSet<String>(tablesByAlias.values());
+      if (tableNames.size() == 1) {
+        return tableNames.iterator().next();
+      }
+      for (String tableName : tableNames) {
+        Table table = tablesByName.get(tableName);
+        if (table != null && table.getColumnNames().contains(column)) {
+          return tableName;
+        }
+      }
+      return null;
+    }
+
+    private List<String> columnsOf(String tableName, List<String> columns) {
+      List<String> tableColumns = new ArrayList<String>();
+      for (String column : columns) {
+        if (tableName.equals(resolveColumnTable(column))) {
+          String name = column.substring(column.indexOf('.') + 1);
+          if (!tableColumns.contains(name)) {
+            tableColumns.add(name);
+          }
+        }
+      }
+      return tableColumns;
+    }
+
+    /**
+     * Returns the columns an index on the table could be searched on, being its WHERE and JOIN columns, optionally
+     * followed by its ORDER BY columns.
+     */
+    List<String> getSearchColumns(String tableName, boolean includingOrderBy) {
+      Set<String> columns = new LinkedHashSet<String>(columnsOf(tableName, query.getWhereColumns()));
+      columns.addAll(columnsOf(tableName, query.getJoinColumns()));
+      if (includingOrderBy) {
+        columns.addAll(columnsOf(tableName, query.getOrderByColumns()));
+      }
+      return new ArrayList<String>(columns);
+    }
+
+    List<String> getGroupByColumns(String tableName) {
+      return columnsOf(tableName, query.getGroupByColumns());
+    }
+
+    List<String> getOrderByColumns(String tableName) {
+      return columnsOf(tableName, query.getOrderByColumns());
+    }
+
+    List<String> getSelectColumns(String tableName) {
+      return columnsOf(tableName, query.getSelectColumns());
+    }
+
+    /**
+     * Returns whether every selected column is a plain column name, so that a covering index can be suggested.
+     */
+    boolean isCoverable(String tableName) {
+      for (String column : query.getSelectColumns()) {
+        if (!SIMPLE_COLUMN.matcher(column).matches()) {
+          return false;
+        }
+      }
+      return !getSelectColumns(tableName).isEmpty();
+    }
+
+  }
+
+  /**
+   * A problem found in the plan of a registered query.
+   */
+  public static final class Finding {
+
+    private final String queryName;
+    private final String sql;
+    private final Kind kind;
+    private final String detail;
+    private final String tableName;
+    private final Table.Index suggestedIndex;
+    private final String note;
+
+    Finding(String queryName, String sql, Kind kind, String detail, String tableName, Table.Index suggestedIndex,
+        String note) {
+      this.queryName = queryName;
+      this.sql = sql;
+      this.kind = kind;
+      this.detail = detail;
+      this.tableName = tableName;
+      this.suggestedIndex = suggestedIndex;
+      this.note = note;
+    }
+
+    public String getQueryName() {
+      return queryName;
+    }
+
+    public String getSql() {
+      return sql;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * Returns the line of the query plan the finding is based on.
+     */
+    public String getDetail() {
+      return detail;
+    }
+
+    /**
+     * Returns the table the finding concerns, or null if it couldn't be determined.
+     */
+    public String getTableName() {
+      return tableName;
+    }
+
+    /**
+     * Returns an index that would avoid the problem, or null if none can be suggested.
+     */
+    public Table.Index getSuggestedIndex() {
+      return suggestedIndex;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder description = new StringBuilder(queryName).append(": ").append(kind).append(" (")
+          .append(detail).append(")");
+      if (suggestedIndex != null) {
+        description.append("; suggest ").append(suggestedIndex.getSql().trim());
+      } else if (note != null) {
+        description.append("; ").append(note);
+      }
+      return description.toString();
+    }
+
+  }
+
+  /**
+   * The findings for all the registered queries.
+   */
+  public static final class Report {
+
+    private final List<Finding> findings;
+
+    Report(List<Finding> findings) {
+      this.findings = Collections.unmodifiableList(findings);
+    }
+
+    public List<Finding> getFindings() {
+      return findings;
+    }
+
+    public List<Finding> getFindings(Kind kind) {
+      List<Finding> findingsOfKind = new ArrayList<Finding>();
+      for (Finding finding : findings) {
+        if (finding.getKind() == kind) {
+          findingsOfKind.add(finding);
+        }
+      }
+      return findingsOfKind;
+    }
+
+    public boolean isEmpty() {
+      return findings.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder report = new StringBuilder();
+      for (Finding finding : findings) {
+        report.append(finding).append('\n');
+      }
+      return report.toString();
+    }
+
+  }
+
+}
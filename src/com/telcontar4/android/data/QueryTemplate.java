@@ -0,0 +1,143 @@
+package com.telcontar4.android.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable form of a {@link Query}, obtained from {@link Query#toTemplate()}. The SQL and bind arguments are
+ * rendered once, when the template is created, so a template can be held as a constant and shared between threads.
+ * Variants with additional ORDER BY terms, a LIMIT or a keyset predicate are derived by appending to the rendered
+ * clauses rather than rebuilding the query.
+ */
+public final class QueryTemplate {
+
+  private final String body;
+  private final boolean whereStarted;
+  private final String groupBy;
+  private final String orderBy;
+  private final String[] orderByColumns;
+  private final boolean[] orderByAscending;
+  private final String limit;
+  private final Object[] bindArgs;
+  private final String[] tables;
+  private final String sql;
+
+  QueryTemplate(String body, boolean whereStarted, String groupBy, String orderBy, String[] orderByColumns,
+      boolean[] orderByAscending, String limit, Object[] bindArgs, String[] tables) {
+    this.body = body;
+    this.whereStarted = whereStarted;
+    this.groupBy = groupBy;
+    this.orderBy = orderBy;
+    this.orderByColumns = orderByColumns;
+    this.orderByAscending = orderByAscending;
+    this.limit = limit;
+    this.bindArgs = bindArgs;
+    this.tables = tables;
+    sql = body + groupBy + orderBy + limit;
+  }
+
+  static String limitClause(int rowCount, int offset) {
+    return offset > 0 ? " LIMIT " + rowCount + " OFFSET " + offset : " LIMIT " + rowCount;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  public int getBindArgCount() {
+    return bindArgs.length;
+  }
+
+  public Object[] getBindArgs() {
+    return bindArgs.clone();
+  }
+
+  List<Object> getBindArgList() {
+    return Collections.unmodifiableList(Arrays.asList(bindArgs));
+  }
+
+  /**
+   * Returns the names of the tables the query reads, including those of subqueries.
+   */
+  public List<String> getTables() {
+    return Collections.unmodifiableList(Arrays.asList(tables));
+  }
+
+  public String[] getOrderByColumns() {
+    return orderByColumns.clone();
+  }
+
+  public QueryTemplate withOrderBy(String column, boolean ascending) {
+    String term = column + (ascending ? " ASC" : " DESC");
+    String[] columns = new String[orderByColumns.length + 1];
+    System.arraycopy(orderByColumns, 0, columns, 0, orderByColumns.length);
+    columns[orderByColumns.length] = column;
+    boolean[] directions = new boolean[orderByAscending.length + 1];
+    System.arraycopy(orderByAscending, 0, directions, 0, orderByAscending.length);
+    directions[orderByAscending.length] = ascending;
+    return new QueryTemplate(body, whereStarted, groupBy, orderBy.length() == 0 ? " ORDER BY " + term : orderBy
+        + ", " + term, columns, directions, limit, bindArgs, tables);
+  }
+
+  public QueryTemplate withLimit(int rowCount) {
+    return withLimit(rowCount, 0);
+  }
+
+  public QueryTemplate withLimit(int rowCount, int offset) {
+    return new QueryTemplate(body, whereStarted, groupBy, orderBy, orderByColumns, orderByAscending, limitClause(
+        rowCount, offset), bindArgs, tables);
+  }
+
+  /**
+   * Derives a template that returns the rows following the one whose ORDER BY column values are given, for
+   * keyset ("seek") pagination. Unlike an OFFSET, the predicate lets SQLite start from the given position in an
+   * index on the ORDER BY columns. Key values must not be null.
+   * <p>
+   * For ORDER BY a ASC, b DESC the predicate is {@code (a > ? OR (a = ? AND b < ?))}; row value comparisons such as
+   * {@code (a, b) > (?, ?)} are avoided because they need SQLite 3.15 and don't allow mixed directions.
+   */
+  public QueryTemplate seekAfter(Object... keyValues) {
+    if (orderByColumns.length == 0) {
+      throw new IllegalStateException("Keyset pagination requires an ORDER BY clause: " + sql);
+    }
+    if (groupBy.length() > 0) {
+      throw new IllegalStateException("Keyset pagination is not supported for grouped queries: " + sql);
+    }
+    if (keyValues.length != orderByColumns.length) {
+      throw new IllegalArgumentException("Expected " + orderByColumns.length + " key values but got "
+          + keyValues.length);
+    }
+    StringBuilder predicate = new StringBuilder(body).append(whereStarted ? " AND (" : " WHERE (");
+    Object[] args = new Object[bindArgs.length + keyValues.length * (keyValues.length + 1) / 2];
+    System.arraycopy(bindArgs, 0, args, 0, bindArgs.length);
+    int argIndex = bindArgs.length;
+    for (int i = 0; i < orderByColumns.length; i++) {
+      if (i > 0) {
+        predicate.append(" OR (");
+      }
+      for (int j = 0; j < i; j++) {
+        predicate.append(orderByColumns[j]).append(" = ? AND ");
+        args[argIndex++] = keyValues[j];
+      }
+      predicate.append(orderByColumns[i]).append(orderByAscending[i] ? " > ?" : " < ?");
+      args[argIndex++] = keyValues[i];
+      if (i > 0) {
+        predicate.append(")");
+      }
+    }
+    predicate.append(")");
+    return new QueryTemplate(predicate.toString(), true, groupBy, orderBy, orderByColumns, orderByAscending, limit,
+        args, tables);
+  }
+
+  public CompiledQuery compile() {
+    return new CompiledQuery(sql, bindArgs);
+  }
+
+  @Override
+  public String toString() {
+    return sql;
+  }
+
+}
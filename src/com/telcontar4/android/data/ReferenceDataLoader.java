@@ -0,0 +1,425 @@
+package com.telcontar4.android.data;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Streams reference data from CSV or JSON lines into a table, reading and inserting a row at a time (using a
+ * {@link BulkInsert}) so that the file is never held in memory.
+ * <p>
+ * CSV files are expected to begin with a header row naming the table columns that the fields map to; fields whose
+ * header isn't a column of the table are ignored. For files without a header, call {@link #columns(String...)} to
+ * give the columns in field order. Empty unquoted fields are inserted as null, and fields mapped to INTEGER columns
+ * are bound as integers.
+ * <p>
+ * Each line of a JSON lines file is an object whose keys are column names. Values are bound with their JSON types.
+ */
+public class ReferenceDataLoader {
+
+  private static final String CHARSET = "UTF-8";
+  private static final int DEFAULT_PROGRESS_INTERVAL = 1000;
+
+  /**
+   * Supported reference data file formats.
+   */
+  public enum Format {
+    CSV, JSON_LINES
+  }
+
+  /**
+   * Receives progress reports while data is loaded; the total number of bytes is -1 if unknown.
+   */
+  public interface ProgressListener {
+
+    void onProgress(String tableName, int rowsLoaded, long bytesRead, long totalBytes);
+
+  }
+
+  private final Table table;
+  private final Format format;
+  private String[] columnNames;
+  private boolean replacing;
+  private int chunkSize;
+  private ProgressListener progressListener;
+  private int progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+  public ReferenceDataLoader(Table table, Format format) {
+    this.table = table;
+    this.format = format;
+  }
+
+  /**
+   * Sets the columns that CSV fields map to, in field order, for files without a header row. For JSON lines,
+   * restricts the columns inserted, which otherwise are all those of the table except its ID column.
+   */
+  public ReferenceDataLoader columns(String... columnNames) {
+    this.columnNames = columnNames;
+    return this;
+  }
+
+  public ReferenceDataLoader orReplace() {
+    replacing = true;
+    return this;
+  }
+
+  public ReferenceDataLoader chunkSize(int rows) {
+    if (rows < 1) {
+      throw new IllegalArgumentException("Chunk size must be positive: " + rows);
+    }
+    chunkSize = rows;
+    return this;
+  }
+
+  public ReferenceDataLoader progressListener(ProgressListener listener, int everyRows) {
+    if (everyRows < 1) {
+      throw new IllegalArgumentException("Progress interval must be positive: " + everyRows);
+    }
+    progressListener = listener;
+    progressInterval = everyRows;
+    return this;
+  }
+
+  public BulkInsert.Result load(SQLiteDatabase db, InputStream in) throws IOException {
+    return load(db, in, -1);
+  }
+
+  /**
+   * Loads the stream's contents, which are {@code totalBytes} long (or -1 if unknown), into the table. The stream is
+   * not closed.
+   */
+  public BulkInsert.Result load(SQLiteDatabase db, InputStream in, long totalBytes) throws IOException {
+    CountingInputStream countingIn = new CountingInputStream(in);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(countingIn, CHARSET));
+    StreamingRowSource rows;
+    if (format == Format.CSV) {
+      rows = new CsvRowSource(reader, countingIn, totalBytes);
+    } else {
+      rows = new JsonLinesRowSource(reader, countingIn, totalBytes);
+    }
+    BulkInsert insert = new BulkInsert(table, rows.getColumnNames());
+    if (replacing) {
+      insert.orReplace();
+    }
+    if (chunkSize > 0) {
+      insert.chunkSize(chunkSize);
+    }
+    try {
+      BulkInsert.Result result = insert.execute(db, rows);
+      rows.reportProgress();
+      return result;
+    } catch (ReadException e) {
+      throw e.getCause();
+    }
+  }
+
+  private String[] insertColumnNames() {
+    if (columnNames != null) {
+      return columnNames;
+    }
+    List<String> tableColumnNames = new ArrayList<String>(table.getColumnNames());
+    tableColumnNames.remove(table.getIdColumnName());
+    return tableColumnNames.toArray(new String[tableColumnNames.size()]);
+  }
+
+  /**
+   * Row source that reads records from a stream, reporting progress as it goes.
+   */
+  private abstract class StreamingRowSource implements BulkInsert.RowSource {
+
+    final BufferedReader reader;
+    private final CountingInputStream countingIn;
+    private final long totalBytes;
+    private int rowsLoaded;
+
+    StreamingRowSource(BufferedReader reader, CountingInputStream countingIn, long totalBytes) {
+      this.reader = reader;
+      this.countingIn = countingIn;
+      this.totalBytes = totalBytes;
+    }
+
+    abstract String[] getColumnNames();
+
+    abstract boolean readRow(BulkInsert.RowBinder row) throws IOException;
+
+    @Override
+    public boolean nextRow(BulkInsert.RowBinder row) {
+      try {
+        if (!readRow(row)) {
+          return false;
+        }
+      } catch (IOException e) {
+        throw new ReadException(e);
+      }
+      if (++rowsLoaded % progressInterval == 0) {
+        reportProgress();
+      }
+      return true;
+    }
+
+    void reportProgress() {
+      if (progressListener != null) {
+        progressListener.onProgress(table.getName(), rowsLoaded, countingIn.getCount(), totalBytes);
+      }
+    }
+
+  }
+
+  /**
+   * Reads CSV records, allowing for quoted fields containing commas, quotes ("") and line breaks.
+   */
+  private class CsvRowSource extends StreamingRowSource {
+
+    private final String[] insertColumns;
+    private final int[] columnsByField;
+    private final boolean[] integerColumns;
+    private final List<String> fields = new ArrayList<String>();
+    private final StringBuilder field = new StringBuilder();
+
+    CsvRowSource(BufferedReader reader, CountingInputStream countingIn, long totalBytes) throws IOException {
+      super(reader, countingIn, totalBytes);
+      if (columnNames == null) {
+        if (!readRecord()) {
+          throw new IOException("Missing CSV header row for " + table.getName());
+        }
+        List<String> headerColumns = new ArrayList<String>();
+        columnsByField = new int[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+          String fieldName = fields.get(i) == null ? "" : fields.get(i).trim();
+          if (table.getColumnType(fieldName) == null) {
+            columnsByField[i] = -1;
+          } else {
+            columnsByField[i] = headerColumns.size();
+            headerColumns.add(fieldName);
+          }
+        }
+        insertColumns = headerColumns.toArray(new String[headerColumns.size()]);
+      } else {
+        insertColumns = columnNames;
+        columnsByField = new int[columnNames.length];
+        for (int i = 0; i < columnsByField.length; i++) {
+          columnsByField[i] = i;
+        }
+      }
+      integerColumns = new boolean[insertColumns.length];
+      for (int i = 0; i < insertColumns.length; i++) {
+        integerColumns[i] = Table.COLUMN_TYPE_INTEGER.equals(table.getColumnType(insertColumns[i]));
+      }
+    }
+
+    @Override
+    String[] getColumnNames() {
+      return insertColumns;
+    }
+
+    @Override
+    boolean readRow(BulkInsert.RowBinder row) throws IOException {
+      if (!readRecord()) {
+        return false;
+      }
+      int fieldCount = Math.min(fields.size(), columnsByField.length);
+      for (int i = 0; i < fieldCount; i++) {
+        int column = columnsByField[i];
+        if (column >= 0) {
+          bindField(row, column, fields.get(i));
+        }
+      }
+      return true;
+    }
+
+    private void bindField(BulkInsert.RowBinder row, int column, String value) {
+      if (value == null) {
+        row.bindNull(column);
+      } else if (integerColumns[column]) {
+        try {
+          row.bindLong(column, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+          row.bindString(column, value);
+        }
+      } else {
+        row.bindString(column, value);
+      }
+    }
+
+    /**
+     * Reads the next record's fields, returning false at the end of the stream. Empty unquoted fields are read as
+     * null; blank lines are skipped.
+     */
+    private boolean readRecord() throws IOException {
+      fields.clear();
+      field.setLength(0);
+      boolean quoted = false;
+      boolean inQuotes = false;
+      int c;
+      while ((c = reader.read()) != -1) {
+        if (inQuotes) {
+          if (c == '"') {
+            reader.mark(1);
+            if (reader.read() == '"') {
+              field.append('"');
+            } else {
+              reader.reset();
+              inQuotes = false;
+            }
+          } else {
+            field.append((char) c);
+          }
+        } else if (c == '"') {
+          inQuotes = true;
+          quoted = true;
+        } else if (c == ',') {
+          addField(quoted);
+          quoted = false;
+        } else if (c == '\n' || c == '\r') {
+          if (c == '\r') {
+            reader.mark(1);
+            if (reader.read() != '\n') {
+              reader.reset();
+            }
+          }
+          if (fields.isEmpty() && field.length() == 0 && !quoted) {
+            continue;
+          }
+          addField(quoted);
+          return true;
+        } else {
+          field.append((char) c);
+        }
+      }
+      if (fields.isEmpty() && field.length() == 0 && !quoted) {
+        return false;
+      }
+      addField(quoted);
+      return true;
+    }
+
+    private void addField(boolean quoted) {
+      fields.add(field.length() == 0 && !quoted ? null : field.toString());
+      field.setLength(0);
+    }
+
+  }
+
+  /**
+   * Reads one JSON object per line.
+   */
+  private class JsonLinesRowSource extends StreamingRowSource {
+
+    private final String[] insertColumns = insertColumnNames();
+
+    JsonLinesRowSource(BufferedReader reader, CountingInputStream countingIn, long totalBytes) {
+      super(reader, countingIn, totalBytes);
+    }
+
+    @Override
+    String[] getColumnNames() {
+      return insertColumns;
+    }
+
+    @Override
+    boolean readRow(BulkInsert.RowBinder row) throws IOException {
+      String line;
+      do {
+        line = reader.readLine();
+        if (line == null) {
+          return false;
+        }
+      } while (line.trim().length() == 0);
+      JSONObject object;
+      try {
+        object = new JSONObject(line);
+      } catch (JSONException e) {
+        // IOException(String, Throwable) needs API 9.
+        IOException invalid = new IOException("Invalid JSON for " + table.getName() + ": " + line);
+        invalid.initCause(e);
+        throw invalid;
+      }
+      for (int column = 0; column < insertColumns.length; column++) {
+        Object value = object.opt(insertColumns[column]);
+        if (value == null || value == JSONObject.NULL) {
+          row.bindNull(column);
+        } else if (value instanceof Integer || value instanceof Long) {
+          row.bindLong(column, ((Number) value).longValue());
+        } else if (value instanceof Number) {
+          row.bindDouble(column, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+          row.bindBoolean(column, (Boolean) value);
+        } else {
+          row.bindString(column, value.toString());
+        }
+      }
+      return true;
+    }
+
+  }
+
+  /**
+   * Carries an IOException out of {@link BulkInsert.RowSource#nextRow}, which can't throw checked exceptions.
+   */
+  private static class ReadException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    ReadException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException) super.getCause();
+    }
+
+  }
+
+  /**
+   * Counts the bytes read from the underlying stream, for progress reporting.
+   */
+  private static class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int bytesRead = super.read(buffer, offset, length);
+      if (bytesRead > 0) {
+        count += bytesRead;
+      }
+      return bytesRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+  }
+
+}
@@ -0,0 +1,175 @@
+package com.telcontar4.android.data;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+
+import android.database.Cursor;
+
+/**
+ * Maps cursor rows to objects by setting the field matching each column, so that no mapping code need be written.
+ * A column {@code text_value} is matched to a field named {@code text_value} or {@code textValue}, and
+ * {@code _id} to {@code _id} or {@code id}. The class must have a no-argument constructor, which may be private.
+ * <p>
+ * Fields may be {@code long}, {@code int}, {@code double}, {@code float}, {@code boolean} (an INTEGER column, non-zero
+ * being true), their boxed equivalents (which are set to null for a null column value), {@code String} or
+ * {@code byte[]}. The fields are looked up and checked once, when the mapper is created, so mapping a row only sets
+ * them; hold the mapper as a constant.
+ */
+public class ReflectiveRowMapper<T> extends RowMapper<T> {
+
+  private static final int LONG = 0;
+  private static final int INT = 1;
+  private static final int DOUBLE = 2;
+  private static final int FLOAT = 3;
+  private static final int BOOLEAN = 4;
+  private static final int BOXED_LONG = 5;
+  private static final int BOXED_INT = 6;
+  private static final int BOXED_DOUBLE = 7;
+  private static final int BOXED_FLOAT = 8;
+  private static final int BOXED_BOOLEAN = 9;
+  private static final int STRING = 10;
+  private static final int BLOB = 11;
+
+  private final Constructor<T> constructor;
+  private final Field[] fields;
+  private final int[] fieldTypes;
+
+  public ReflectiveRowMapper(Class<T> type, String... columnNames) {
+    super(columnNames);
+    try {
+      constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(type.getName() + " has no no-argument constructor", e);
+    }
+    fields = new Field[columnNames.length];
+    fieldTypes = new int[columnNames.length];
+    for (int i = 0; i < columnNames.length; i++) {
+      fields[i] = findField(type, columnNames[i]);
+      fields[i].setAccessible(true);
+      fieldTypes[i] = toFieldType(fields[i]);
+    }
+  }
+
+  public ReflectiveRowMapper(Class<T> type, Query query) {
+    this(type, toResultColumnNames(query.getSelectColumns()));
+  }
+
+  private static Field findField(Class<?> type, String columnName) {
+    String camelCaseName = toCamelCase(columnName);
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        if (field.getName().equals(columnName) || field.getName().equals(camelCaseName)) {
+          return field;
+        }
+      }
+    }
+    throw new IllegalArgumentException(type.getName() + " has no field for column " + columnName);
+  }
+
+  private static String toCamelCase(String columnName) {
+    StringBuilder name = new StringBuilder(columnName.length());
+    boolean upperCaseNext = false;
+    for (int i = 0; i < columnName.length(); i++) {
+      char c = columnName.charAt(i);
+      if (c == '_') {
+        upperCaseNext = name.length() > 0;
+      } else {
+        name.append(upperCaseNext ? Character.toUpperCase(c) : c);
+        upperCaseNext = false;
+      }
+    }
+    return name.toString();
+  }
+
+  private static int toFieldType(Field field) {
+    Class<?> type = field.getType();
+    if (type == long.class) {
+      return LONG;
+    } else if (type == int.class) {
+      return INT;
+    } else if (type == double.class) {
+      return DOUBLE;
+    } else if (type == float.class) {
+      return FLOAT;
+    } else if (type == boolean.class) {
+      return BOOLEAN;
+    } else if (type == Long.class) {
+      return BOXED_LONG;
+    } else if (type == Integer.class) {
+      return BOXED_INT;
+    } else if (type == Double.class) {
+      return BOXED_DOUBLE;
+    } else if (type == Float.class) {
+      return BOXED_FLOAT;
+    } else if (type == Boolean.class) {
+      return BOXED_BOOLEAN;
+    } else if (type == String.class) {
+      return STRING;
+    } else if (type == byte[].class) {
+      return BLOB;
+    }
+    throw new IllegalArgumentException("Unsupported type " + type.getName() + " of field " + field.getName());
+  }
+
+  @Override
+  protected T mapRow(CursorColumns columns) {
+    try {
+      T row = constructor.newInstance();
+      Cursor cursor = columns.getCursor();
+      for (int i = 0; i < fields.length; i++) {
+        setField(row, i, cursor, columns.getColumnIndex(i));
+      }
+      return row;
+    } catch (InstantiationException e) {
+      throw new IllegalStateException("Unable to create " + constructor.getDeclaringClass().getName(), e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Unable to create " + constructor.getDeclaringClass().getName(), e);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException("Unable to create " + constructor.getDeclaringClass().getName(), e);
+    }
+  }
+
+  private void setField(T row, int i, Cursor cursor, int columnIndex) throws IllegalAccessException {
+    Field field = fields[i];
+    switch (fieldTypes[i]) {
+    case LONG:
+      field.setLong(row, cursor.getLong(columnIndex));
+      break;
+    case INT:
+      field.setInt(row, cursor.getInt(columnIndex));
+      break;
+    case DOUBLE:
+      field.setDouble(row, cursor.getDouble(columnIndex));
+      break;
+    case FLOAT:
+      field.setFloat(row, cursor.getFloat(columnIndex));
+      break;
+    case BOOLEAN:
+      field.setBoolean(row, cursor.getInt(columnIndex) != 0);
+      break;
+    case BOXED_LONG:
+      field.set(row, cursor.isNull(columnIndex) ? null : Long.valueOf(cursor.getLong(columnIndex)));
+      break;
+    case BOXED_INT:
+      field.set(row, cursor.isNull(columnIndex) ? null : Integer.valueOf(cursor.getInt(columnIndex)));
+      break;
+    case BOXED_DOUBLE:
+      field.set(row, cursor.isNull(columnIndex) ? null : Double.valueOf(cursor.getDouble(columnIndex)));
+      break;
+    case BOXED_FLOAT:
+      field.set(row, cursor.isNull(columnIndex) ? null : Float.valueOf(cursor.getFloat(columnIndex)));
+      break;
+    case BOXED_BOOLEAN:
+      field.set(row, cursor.isNull(columnIndex) ? null : Boolean.valueOf(cursor.getInt(columnIndex) != 0));
+      break;
+    case STRING:
+      field.set(row, cursor.getString(columnIndex));
+      break;
+    default:
+      field.set(row, cursor.getBlob(columnIndex));
+    }
+  }
+
+}
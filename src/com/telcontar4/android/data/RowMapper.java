@@ -0,0 +1,121 @@
+package com.telcontar4.android.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import android.database.Cursor;
+
+/**
+ * Maps cursor rows to objects. A mapper names the columns it reads once, and {@link #mapRow(CursorColumns)} then
+ * reads them by position, so that column names are looked up once per cursor rather than once per row:
+ *
+ * <pre>
+ * static final RowMapper&lt;Item&gt; ITEM = new RowMapper&lt;Item&gt;(MyTable._ID, MyTable.TEXT, MyTable.PRICE) {
+ *   protected Item mapRow(CursorColumns columns) {
+ *     return new Item(columns.getLongOrDefault(0, 0), columns.getString(1), columns.getIntOrDefault(2, 0));
+ *   }
+ * };
+ *
+ * List&lt;Item&gt; items = ITEM.mapAll(cursor);
+ * </pre>
+ *
+ * A mapper holds no per-cursor state, so it can be held as a constant and shared between threads.
+ * {@link #iterate(Cursor)} maps rows as they are read, for results too large to hold as a list.
+ */
+public abstract class RowMapper<T> {
+
+  private final String[] columnNames;
+
+  protected RowMapper(String... columnNames) {
+    this.columnNames = columnNames;
+  }
+
+  /**
+   * Creates a mapper reading the columns selected by the query, in the order selected; a qualified column such as
+   * {@code items.text} is read by its unqualified name, and an aliased one by its alias.
+   */
+  protected RowMapper(Query query) {
+    this(toResultColumnNames(query.getSelectColumns()));
+  }
+
+  static String[] toResultColumnNames(List<String> selectColumns) {
+    String[] names = new String[selectColumns.size()];
+    for (int i = 0; i < names.length; i++) {
+      String column = selectColumns.get(i).trim();
+      int space = column.lastIndexOf(' ');
+      if (space >= 0) {
+        column = column.substring(space + 1);
+      }
+      names[i] = column.substring(column.lastIndexOf('.') + 1);
+    }
+    return names;
+  }
+
+  public String[] getColumnNames() {
+    return columnNames.clone();
+  }
+
+  /**
+   * Maps the row at the cursor's current position.
+   */
+  protected abstract T mapRow(CursorColumns columns);
+
+  /**
+   * Maps every row of the cursor, from the first, leaving it positioned after the last. The cursor is not closed.
+   */
+  public List<T> mapAll(Cursor cursor) {
+    List<T> rows = new ArrayList<T>(cursor.getCount());
+    CursorColumns columns = new CursorColumns(cursor, columnNames);
+    cursor.moveToPosition(-1);
+    while (cursor.moveToNext()) {
+      rows.add(mapRow(columns));
+    }
+    return rows;
+  }
+
+  /**
+   * Maps the first row of the cursor, or returns null if it has none. The cursor is not closed.
+   */
+  public T mapFirst(Cursor cursor) {
+    return cursor.moveToFirst() ? mapRow(new CursorColumns(cursor, columnNames)) : null;
+  }
+
+  /**
+   * Returns an iterator that maps the cursor's rows from its current position as it is advanced, so that only one
+   * row's object need be held at a time. The cursor is closed when the iterator is exhausted.
+   */
+  public Iterator<T> iterate(final Cursor cursor) {
+    final CursorColumns columns = new CursorColumns(cursor, columnNames);
+    return new Iterator<T>() {
+
+      private boolean hasNext = cursor.moveToNext();
+
+      @Override
+      public boolean hasNext() {
+        if (!hasNext && !cursor.isClosed()) {
+          cursor.close();
+        }
+        return hasNext;
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext) {
+          throw new NoSuchElementException();
+        }
+        T row = mapRow(columns);
+        hasNext = cursor.moveToNext();
+        return row;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+
+    };
+  }
+
+}
@@ -0,0 +1,465 @@
+package com.telcontar4.android.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Compares a {@link Table} definition, with its indexes and full-text indexes, against the table as it exists in the
+ * database, and works out the cheapest change that brings the database into line: nothing, creating the table,
+ * adding columns with {@code ALTER TABLE ... ADD COLUMN}, or &mdash; when columns are dropped or retyped, or the
+ * primary key or storage changes &mdash; rebuilding the table by copying its rows to a new one. Indexes are dropped
+ * or created as needed, and after a rebuild are created once the rows have been copied.
+ * <p>
+ * {@link #compare(SQLiteDatabase, Table)} reports the differences and an estimate of the cost of applying them, and
+ * {@link #newMigration(int, String, Table, int)} returns a migration that applies them when the database is upgraded,
+ * copying rows in chunks:
+ *
+ * <pre>
+ * addMigration(SchemaDiff.newMigration(ITEMS_REBUILD_VERSION, &quot;items-schema&quot;, Schema.ITEMS, 5000));
+ * </pre>
+ *
+ * While a rebuild's chunks are pending, the old table is still in place; rows written to it after they have been
+ * copied are not carried over, so the chunks should be completed before the table is written, as they are when
+ * pending migrations are completed on open.
+ */
+public class SchemaDiff {
+
+  private static final String LOG_TAG = SchemaDiff.class.getSimpleName();
+
+  /**
+   * The copy rate assumed by {@link #getEstimatedMillis()}, in rows per second; a conservative figure for a
+   * mid-range device.
+   */
+  public static final long DEFAULT_ROWS_PER_SECOND = 20000;
+
+  private static final String REBUILD_SUFFIX = "_rebuild";
+  private static final Pattern COLUMN_CONSTRAINT = Pattern.compile(
+      "(?i)\\b(CONSTRAINT|PRIMARY|NOT|NULL|UNIQUE|CHECK|DEFAULT|COLLATE|REFERENCES|GENERATED|AS)\\b");
+  private static final Pattern NOT_NULL = Pattern.compile("(?i)\\bNOT\\s+NULL\\b");
+  private static final Pattern DEFAULT = Pattern.compile("(?i)\\bDEFAULT\\b");
+  private static final Pattern UNIQUE = Pattern.compile("(?i)\\bUNIQUE\\b");
+
+  /**
+   * The changes needed to the table itself.
+   */
+  public enum Action {
+    NONE, CREATE_TABLE, ADD_COLUMNS, REBUILD
+  }
+
+  private final Table table;
+  private final Action action;
+  private final String rebuildReason;
+  private final List<String> addedColumns;
+  private final List<String> droppedColumns;
+  private final List<String> changedColumns;
+  private final List<String> indexesToDrop;
+  private final List<Table.Index> indexesToCreate;
+  private final List<Table.FullTextIndex> fullTextIndexesToCreate;
+  private final long rowCount;
+
+  private SchemaDiff(Table table, Action action, String rebuildReason, List<String> addedColumns,
+      List<String> droppedColumns, List<String> changedColumns, List<String> indexesToDrop,
+      List<Table.Index> indexesToCreate, List<Table.FullTextIndex> fullTextIndexesToCreate, long rowCount) {
+    this.table = table;
+    this.action = action;
+    this.rebuildReason = rebuildReason;
+    this.addedColumns = addedColumns;
+    this.droppedColumns = droppedColumns;
+    this.changedColumns = changedColumns;
+    this.indexesToDrop = indexesToDrop;
+    this.indexesToCreate = indexesToCreate;
+    this.fullTextIndexesToCreate = fullTextIndexesToCreate;
+    this.rowCount = rowCount;
+  }
+
+  public static SchemaDiff compare(SQLiteDatabase db, Table table) {
+    String tableName = table.getName();
+    String existingSql = readSchemaSql(db, "table", tableName);
+    List<String> addedColumns = new ArrayList<String>();
+    List<String> droppedColumns = new ArrayList<String>();
+    List<String> changedColumns = new ArrayList<String>();
+    List<String> indexesToDrop = new ArrayList<String>();
+    List<Table.Index> indexesToCreate = new ArrayList<Table.Index>();
+    List<Table.FullTextIndex> fullTextIndexesToCreate = new ArrayList<Table.FullTextIndex>();
+    if (existingSql == null) {
+      indexesToCreate.addAll(table.getIndexes());
+      fullTextIndexesToCreate.addAll(table.getFullTextIndexes());
+      return new SchemaDiff(table, Action.CREATE_TABLE, null, addedColumns, droppedColumns, changedColumns,
+          indexesToDrop, indexesToCreate, fullTextIndexesToCreate, 0);
+    }
+
+    Map<String, String> existingTypes = new LinkedHashMap<String, String>();
+    List<String> existingPrimaryKey = new ArrayList<String>();
+    readColumns(db, tableName, existingTypes, existingPrimaryKey);
+    for (String column : table.getColumnNames()) {
+      String existingType = existingTypes.remove(column.toLowerCase(Locale.US));
+      if (existingType == null) {
+        addedColumns.add(column);
+      } else if (!declaredType(existingType).equals(declaredType(table.getColumnType(column)))) {
+        changedColumns.add(column);
+      }
+    }
+    droppedColumns.addAll(existingTypes.keySet());
+
+    String rebuildReason = findRebuildReason(table, existingSql, existingPrimaryKey, addedColumns, droppedColumns,
+        changedColumns);
+    Action action = rebuildReason != null ? Action.REBUILD : addedColumns.isEmpty() ? Action.NONE
+        : Action.ADD_COLUMNS;
+    if (action == Action.REBUILD) {
+      // The old indexes go with the old table, and the full-text triggers must be recreated on the new one.
+      indexesToCreate.addAll(table.getIndexes());
+      fullTextIndexesToCreate.addAll(table.getFullTextIndexes());
+    } else {
+      diffIndexes(db, table, indexesToDrop, indexesToCreate);
+      for (Table.FullTextIndex index : table.getFullTextIndexes()) {
+        if (readSchemaSql(db, "table", index.getName()) == null) {
+          fullTextIndexesToCreate.add(index);
+        }
+      }
+    }
+    return new SchemaDiff(table, action, rebuildReason, addedColumns, droppedColumns, changedColumns,
+        indexesToDrop, indexesToCreate, fullTextIndexesToCreate, countRows(db, tableName));
+  }
+
+  private static String findRebuildReason(Table table, String existingSql, List<String> existingPrimaryKey,
+      List<String> addedColumns, List<String> droppedColumns, List<String> changedColumns) {
+    String upperCaseSql = existingSql.toUpperCase(Locale.US);
+    String definedSql = table.getSql().toUpperCase(Locale.US);
+    List<String> primaryKey = new ArrayList<String>();
+    for (String column : table.getPrimaryKeyColumnNames()) {
+      primaryKey.add(column.toLowerCase(Locale.US));
+    }
+    if (!droppedColumns.isEmpty()) {
+      return "columns dropped: " + droppedColumns;
+    } else if (!changedColumns.isEmpty()) {
+      return "column types changed: " + changedColumns;
+    } else if (!primaryKey.equals(existingPrimaryKey)) {
+      return "primary key changed from " + existingPrimaryKey + " to " + primaryKey;
+    } else if (upperCaseSql.contains("WITHOUT ROWID") != table.isWithoutRowid()) {
+      return table.isWithoutRowid() ? "rowid removed" : "rowid added";
+    } else if (upperCaseSql.contains("AUTOINCREMENT") != definedSql.contains("AUTOINCREMENT")) {
+      return definedSql.contains("AUTOINCREMENT") ? "AUTOINCREMENT added" : "AUTOINCREMENT removed";
+    }
+    for (String column : addedColumns) {
+      String definition = table.getColumnType(column);
+      if (primaryKey.contains(column.toLowerCase(Locale.US))) {
+        return "primary key column added: " + column;
+      } else if (NOT_NULL.matcher(definition).find() && !DEFAULT.matcher(definition).find()) {
+        return "NOT NULL column without a default added: " + column;
+      } else if (UNIQUE.matcher(definition).find()) {
+        return "UNIQUE column added: " + column;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the type name of a column definition, the words before any constraint, which is all that
+   * {@code PRAGMA table_info} reports; whitespace is removed for comparison.
+   */
+  static String declaredType(String definition) {
+    Matcher constraint = COLUMN_CONSTRAINT.matcher(definition);
+    String type = constraint.find() ? definition.substring(0, constraint.start()) : definition;
+    return type.replaceAll("\\s+", "").toUpperCase(Locale.US);
+  }
+
+  private static void diffIndexes(SQLiteDatabase db, Table table, List<String> indexesToDrop,
+      List<Table.Index> indexesToCreate) {
+    Map<String, String> existingIndexes = new LinkedHashMap<String, String>();
+    Cursor cursor = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = 'index' AND tbl_name = ?"
+        + " AND sql IS NOT NULL", new String[] { table.getName() });
+    try {
+      while (cursor.moveToNext()) {
+        existingIndexes.put(cursor.getString(0).toLowerCase(Locale.US), cursor.getString(1));
+      }
+    } finally {
+      cursor.close();
+    }
+    for (Table.Index index : table.getIndexes()) {
+      String existingSql = existingIndexes.remove(index.getName().toLowerCase(Locale.US));
+      if (existingSql == null) {
+        indexesToCreate.add(index);
+      } else if (!normalize(existingSql).equals(normalize(index.getSql()))) {
+        indexesToDrop.add(index.getName());
+        indexesToCreate.add(index);
+      }
+    }
+    indexesToDrop.addAll(existingIndexes.keySet());
+  }
+
+  /**
+   * Normalizes DDL for comparison; SQLite stores it without the IF NOT EXISTS clause.
+   */
+  private static String normalize(String sql) {
+    String normalized = sql.replaceAll("(?i)IF NOT EXISTS ", "").replaceAll("\\s+", " ").trim();
+    if (normalized.endsWith(";")) {
+      normalized = normalized.substring(0, normalized.length() - 1).trim();
+    }
+    return normalized.toLowerCase(Locale.US);
+  }
+
+  private static String readSchemaSql(SQLiteDatabase db, String type, String name) {
+    Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE type = ? AND name = ?", new String[] { type,
+        name });
+    try {
+      return cursor.moveToFirst() ? cursor.getString(0) : null;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Reads the names, lower-cased, and declared types of the table's columns, and its primary key columns in order.
+   */
+  private static void readColumns(SQLiteDatabase db, String tableName, Map<String, String> types,
+      List<String> primaryKey) {
+    Map<Integer, String> primaryKeyByPosition = new TreeMap<Integer, String>();
+    Cursor cursor = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+    try {
+      int nameIndex = cursor.getColumnIndexOrThrow("name");
+      int typeIndex = cursor.getColumnIndexOrThrow("type");
+      int primaryKeyIndex = cursor.getColumnIndexOrThrow("pk");
+      while (cursor.moveToNext()) {
+        String name = cursor.getString(nameIndex).toLowerCase(Locale.US);
+        types.put(name, cursor.isNull(typeIndex) ? "" : cursor.getString(typeIndex));
+        int position = cursor.getInt(primaryKeyIndex);
+        if (position > 0) {
+          primaryKeyByPosition.put(position, name);
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+    primaryKey.addAll(primaryKeyByPosition.values());
+  }
+
+  private static long countRows(SQLiteDatabase db, String tableName) {
+    Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + tableName, null);
+    try {
+      return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  public Table getTable() {
+    return table;
+  }
+
+  public Action getAction() {
+    return action;
+  }
+
+  /**
+   * Returns why the table must be rebuilt, or null if it needn't be.
+   */
+  public String getRebuildReason() {
+    return rebuildReason;
+  }
+
+  public List<String> getAddedColumns() {
+    return Collections.unmodifiableList(addedColumns);
+  }
+
+  public List<String> getDroppedColumns() {
+    return Collections.unmodifiableList(droppedColumns);
+  }
+
+  public List<String> getChangedColumns() {
+    return Collections.unmodifiableList(changedColumns);
+  }
+
+  public List<String> getIndexesToDrop() {
+    return Collections.unmodifiableList(indexesToDrop);
+  }
+
+  public List<Table.Index> getIndexesToCreate() {
+    return Collections.unmodifiableList(indexesToCreate);
+  }
+
+  public boolean hasChanges() {
+    return action != Action.NONE || !indexesToDrop.isEmpty() || !indexesToCreate.isEmpty()
+        || !fullTextIndexesToCreate.isEmpty();
+  }
+
+  /**
+   * Returns the number of rows a rebuild copies.
+   */
+  public long getRowsToCopy() {
+    return action == Action.REBUILD ? rowCount : 0;
+  }
+
+  public long getEstimatedMillis() {
+    return getEstimatedMillis(DEFAULT_ROWS_PER_SECOND);
+  }
+
+  /**
+   * Estimates the time to apply the changes, from the rows to copy and the rows to index, at the given rate.
+   */
+  public long getEstimatedMillis(long rowsPerSecond) {
+    if (rowsPerSecond < 1) {
+      throw new IllegalArgumentException("Rows per second must be positive: " + rowsPerSecond);
+    }
+    long rowsWritten = getRowsToCopy() + rowCount * (indexesToCreate.size() + fullTextIndexesToCreate.size());
+    return rowsWritten * 1000L / rowsPerSecond;
+  }
+
+  /**
+   * Applies the schema changes; for a rebuild, creates the new table, leaving the rows to be copied.
+   */
+  private void applySchemaChanges(SQLiteDatabase db) {
+    String tableName = table.getName();
+    switch (action) {
+    case CREATE_TABLE:
+      db.execSQL(table.getSql());
+      break;
+    case ADD_COLUMNS:
+      for (String column : addedColumns) {
+        db.execSQL("ALTER TABLE " + tableName + " ADD COLUMN " + column + table.getColumnType(column));
+      }
+      break;
+    case REBUILD:
+      db.execSQL("DROP TABLE IF EXISTS " + tableName + REBUILD_SUFFIX);
+      db.execSQL(table.getSql(tableName + REBUILD_SUFFIX));
+      return;
+    default:
+      break;
+    }
+    for (String index : indexesToDrop) {
+      db.execSQL("DROP INDEX IF EXISTS " + index);
+    }
+    createIndexes(db, indexesToCreate, fullTextIndexesToCreate);
+  }
+
+  private static void createIndexes(SQLiteDatabase db, List<Table.Index> indexes,
+      List<Table.FullTextIndex> fullTextIndexes) {
+    for (Table.Index index : indexes) {
+      db.execSQL(index.getSql());
+    }
+    for (Table.FullTextIndex index : fullTextIndexes) {
+      db.execSQL(index.getSql());
+      for (String trigger : index.getTriggerSql()) {
+        db.execSQL(trigger);
+      }
+      db.execSQL(index.getRebuildSql());
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder report = new StringBuilder(table.getName()).append(": ").append(action);
+    if (rebuildReason != null) {
+      report.append(" (").append(rebuildReason).append(")");
+    }
+    if (!addedColumns.isEmpty()) {
+      report.append(", add columns ").append(addedColumns);
+    }
+    if (!indexesToDrop.isEmpty()) {
+      report.append(", drop indexes ").append(indexesToDrop);
+    }
+    if (!indexesToCreate.isEmpty() || !fullTextIndexesToCreate.isEmpty()) {
+      report.append(", create ").append(indexesToCreate.size() + fullTextIndexesToCreate.size()).append(" indexes");
+    }
+    return report.append(", ").append(getRowsToCopy()).append(" rows to copy, about ").append(getEstimatedMillis())
+        .append(" ms").toString();
+  }
+
+  /**
+   * Returns a migration that compares the table definition against the database when the upgrade runs and applies
+   * the differences, copying rows in chunks of the given size if the table must be rebuilt.
+   */
+  public static ChunkedMigration newMigration(int version, String name, Table table, int chunkSize) {
+    return new TableMigration(version, name, table, chunkSize);
+  }
+
+  /**
+   * Applies a {@link SchemaDiff}. The chunks and finish may run in a later process than the upgrade, so they work
+   * from the state of the database rather than from the diff: a rebuild is in progress while the new table exists,
+   * and the progress is the rowid of the last row copied.
+   */
+  private static class TableMigration extends ChunkedMigration {
+
+    private final Table table;
+    private final String rebuildTableName;
+
+    TableMigration(int version, String name, Table table, int chunkSize) {
+      super(version, name, chunkSize);
+      this.table = table;
+      rebuildTableName = table.getName() + REBUILD_SUFFIX;
+    }
+
+    @Override
+    protected void prepare(SQLiteDatabase db) {
+      SchemaDiff diff = compare(db, table);
+      Log.i(LOG_TAG, diff.toString());
+      diff.applySchemaChanges(db);
+    }
+
+    @Override
+    protected long migrateChunk(SQLiteDatabase db, long progress, int chunkSize) {
+      if (readSchemaSql(db, "table", rebuildTableName) == null) {
+        return COMPLETE;
+      }
+      String columns = getCommonColumns(db);
+      String copy = "INSERT INTO " + rebuildTableName + " (" + columns + ") SELECT " + columns + " FROM "
+          + table.getName();
+      String oldSql = readSchemaSql(db, "table", table.getName());
+      if (oldSql.toUpperCase(Locale.US).contains("WITHOUT ROWID")) {
+        // No rowid to resume from, so copy the rows in one go.
+        db.execSQL(copy);
+        return COMPLETE;
+      }
+      Long upTo = null;
+      Cursor cursor = db.rawQuery("SELECT rowid FROM " + table.getName() + " WHERE rowid > ? ORDER BY rowid"
+          + " LIMIT 1 OFFSET " + (chunkSize - 1), new String[] { Long.toString(progress) });
+      try {
+        if (cursor.moveToFirst()) {
+          upTo = cursor.getLong(0);
+        }
+      } finally {
+        cursor.close();
+      }
+      if (upTo == null) {
+        db.execSQL(copy + " WHERE rowid > ?", new Object[] { progress });
+        return COMPLETE;
+      }
+      db.execSQL(copy + " WHERE rowid > ? AND rowid <= ?", new Object[] { progress, upTo });
+      return upTo;
+    }
+
+    private String getCommonColumns(SQLiteDatabase db) {
+      Map<String, String> oldColumns = new LinkedHashMap<String, String>();
+      readColumns(db, table.getName(), oldColumns, new ArrayList<String>());
+      StringBuilder columns = new StringBuilder();
+      for (String column : table.getColumnNames()) {
+        if (oldColumns.containsKey(column.toLowerCase(Locale.US))) {
+          columns.append(columns.length() == 0 ? "" : ", ").append(column);
+        }
+      }
+      return columns.toString();
+    }
+
+    @Override
+    protected void finish(SQLiteDatabase db) {
+      if (readSchemaSql(db, "table", rebuildTableName) == null) {
+        return;
+      }
+      db.execSQL("DROP TABLE " + table.getName());
+      db.execSQL("ALTER TABLE " + rebuildTableName + " RENAME TO " + table.getName());
+      createIndexes(db, table.getIndexes(), table.getFullTextIndexes());
+    }
+
+  }
+
+}
@@ -1,31 +1,77 @@
 package com.telcontar4.android.data;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Fluent API for creating (and altering?) SQLite tables.
  */
 public class Table {
 
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS ";
     private static final String COLUMN_TYPE_ID = " INTEGER PRIMARY KEY AUTOINCREMENT";
+    private static final String COLUMN_TYPE_ROWID = " INTEGER PRIMARY KEY";
     public static final String COLUMN_TYPE_INTEGER = " INTEGER";
     public static final String COLUMN_TYPE_TEXT = " TEXT";
+    public static final String COLUMN_TYPE_REAL = " REAL";
+    public static final String COLUMN_TYPE_BLOB = " BLOB";
 
     private final StringBuilder sql;
     private final String tableName;
+    private final List<String> columnNames = new ArrayList<String>();
+    private final List<String> columnTypes = new ArrayList<String>();
+    private final List<Index> indexes = new ArrayList<Index>();
+    private final List<FullTextIndex> fullTextIndexes = new ArrayList<FullTextIndex>();
+    private String idColumnName;
+    private String[] primaryKeyColumnNames;
+    private boolean withoutRowid;
     private boolean columnsStarted;
 
     public Table(String name) {
         tableName = name;
 
-        sql = new StringBuilder("CREATE TABLE IF NOT EXISTS ");
+        sql = new StringBuilder(CREATE_TABLE);
         sql.append(tableName);
     }
 
+    /**
+     * Adds an {@code INTEGER PRIMARY KEY AUTOINCREMENT} column. AUTOINCREMENT, which prevents the IDs of deleted rows
+     * being reused, costs a write to {@code sqlite_sequence} for every insert; where reuse doesn't matter prefer
+     * {@link #withIntegerPrimaryKey(String)}.
+     */
     public Table withIdColumn(String columnName) {
+        checkNoPrimaryKey();
         prefixColumn();
         sql.append(columnName).append(COLUMN_TYPE_ID);
+        idColumnName = columnName;
+        addColumn(columnName, COLUMN_TYPE_INTEGER);
+        return this;
+    }
+
+    /**
+     * Adds an {@code INTEGER PRIMARY KEY} column, which is an alias for the rowid, so costs nothing to maintain. Like
+     * the column added by {@link #withIdColumn(String)}, it is the table's ID column.
+     */
+    public Table withIntegerPrimaryKey(String columnName) {
+        checkNoPrimaryKey();
+        prefixColumn();
+        sql.append(columnName).append(COLUMN_TYPE_ROWID);
+        idColumnName = columnName;
+        addColumn(columnName, COLUMN_TYPE_INTEGER);
         return this;
     }
 
+    /**
+     * Ensures the table doesn't already have a primary key, which SQLite would only report on creating it.
+     */
+    private void checkNoPrimaryKey() {
+        if (idColumnName != null || primaryKeyColumnNames != null) {
+            throw new IllegalStateException(tableName + " already has a primary key");
+        }
+    }
+
     private void prefixColumn() {
         if (columnsStarted) {
             sql.append(", ");
@@ -38,20 +84,158 @@ public class Table {
     public Table withColumn(String columnName, String columnType) {
         prefixColumn();
         sql.append(columnName).append(columnType);
+        addColumn(columnName, columnType);
+        return this;
+    }
+
+    private void addColumn(String columnName, String columnType) {
+        columnNames.add(columnName);
+        columnTypes.add(columnType);
+    }
+
+    /**
+     * Declares a primary key of one or more of the table's columns, as a table constraint. The table can't also have
+     * an ID column.
+     */
+    public Table withPrimaryKey(String... columnNames) {
+        checkNoPrimaryKey();
+        for (String columnName : columnNames) {
+            if (getColumnType(columnName) == null) {
+                throw new IllegalArgumentException(columnName + " is not a column of " + tableName);
+            }
+        }
+        primaryKeyColumnNames = columnNames.clone();
+        return this;
+    }
+
+    /**
+     * Stores the table's rows in its primary key's B-tree rather than by rowid, which saves space and a lookup for
+     * tables with a non-integer or composite primary key, such as join tables. The table must have a primary key
+     * declared with {@link #withPrimaryKey(String...)}, and can't have a full-text index. Needs SQLite 3.8.2, so API
+     * 21 or later.
+     */
+    public Table withoutRowid() {
+        withoutRowid = true;
         return this;
     }
 
+    public boolean isWithoutRowid() {
+        return withoutRowid;
+    }
+
+    /**
+     * Returns the columns of the table's primary key: those declared with {@link #withPrimaryKey(String...)}, or else
+     * the ID column, if any.
+     */
+    public List<String> getPrimaryKeyColumnNames() {
+        if (primaryKeyColumnNames != null) {
+            return Collections.unmodifiableList(Arrays.asList(primaryKeyColumnNames));
+        }
+        return idColumnName == null ? Collections.<String> emptyList() : Collections.singletonList(idColumnName);
+    }
+
     public String getSql() {
-        sql.append("); ");
-        return sql.toString();
+        return getSql(tableName);
+    }
+
+    /**
+     * Returns the table's DDL under another name, as for the copy made when rebuilding it.
+     */
+    String getSql(String name) {
+        if (withoutRowid && primaryKeyColumnNames == null) {
+            throw new IllegalStateException("A WITHOUT ROWID table requires a PRIMARY KEY: " + tableName);
+        }
+        StringBuilder tableSql = new StringBuilder(CREATE_TABLE).append(name)
+                .append(sql, CREATE_TABLE.length() + tableName.length(), sql.length());
+        if (primaryKeyColumnNames != null) {
+            tableSql.append(", PRIMARY KEY (");
+            for (int i = 0; i < primaryKeyColumnNames.length; i++) {
+                tableSql.append(i == 0 ? "" : ", ").append(primaryKeyColumnNames[i]);
+            }
+            tableSql.append(")");
+        }
+        return tableSql.append(withoutRowid ? ") WITHOUT ROWID; " : "); ").toString();
+    }
+
+    public String getName() {
+        return tableName;
+    }
+
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(columnNames);
+    }
+
+    /**
+     * Returns the type of the named column, as one of the {@code COLUMN_TYPE_XXX} constants (the ID column's type
+     * being {@link #COLUMN_TYPE_INTEGER}), or null if the table has no such column.
+     */
+    public String getColumnType(String columnName) {
+        int columnIndex = columnNames.indexOf(columnName);
+        return columnIndex < 0 ? null : columnTypes.get(columnIndex);
+    }
+
+    /**
+     * Returns the name of the column declared with {@link #withIdColumn(String)} or
+     * {@link #withIntegerPrimaryKey(String)}, or null if there is none.
+     */
+    public String getIdColumnName() {
+        return idColumnName;
     }
 
     public Index addIndex(String indexName, String columnName) {
-        return new Index(tableName, indexName, columnName);
+        Index index = new Index(tableName, indexName, columnName);
+        indexes.add(index);
+        return index;
     }
 
     public Index addIndex(String indexName, boolean unique, String... columnNames) {
-        return new Index(tableName, indexName, unique, columnNames);
+        Index index = new Index(tableName, indexName, unique, columnNames);
+        indexes.add(index);
+        return index;
+    }
+
+    /**
+     * Returns the indexes added to this table, in the order they were added.
+     */
+    public List<Index> getIndexes() {
+        return Collections.unmodifiableList(indexes);
+    }
+
+    /**
+     * Adds an FTS4 table indexing the given text columns of this one for full-text search. The FTS table stores no
+     * copy of the text, reading it from this table instead, and is kept in step with it by triggers; its
+     * {@code docid} is this table's {@code rowid}.
+     */
+    public FullTextIndex addFullTextIndex(String ftsTableName, String... columnNames) {
+        for (String columnName : columnNames) {
+            if (getColumnType(columnName) == null) {
+                throw new IllegalArgumentException(columnName + " is not a column of " + tableName);
+            }
+        }
+        FullTextIndex index = new FullTextIndex(ftsTableName, columnNames);
+        fullTextIndexes.add(index);
+        return index;
+    }
+
+    public List<FullTextIndex> getFullTextIndexes() {
+        return Collections.unmodifiableList(fullTextIndexes);
+    }
+
+    /**
+     * Adds an index on expressions, such as {@code lower(name)}, rather than on columns; queries must use the same
+     * expressions for SQLite to use the index. Needs SQLite 3.9, so API 24 or later.
+     */
+    public Index addExpressionIndex(String indexName, String... expressions) {
+        Index index = addIndex(indexName, false, expressions);
+        index.expression = true;
+        return index;
+    }
+
+    /**
+     * Creates an index definition without adding it to the table, for suggesting to the developer.
+     */
+    Index newIndex(String indexName, String... columnNames) {
+        return new Index(tableName, indexName, false, columnNames);
     }
 
     /**
@@ -60,14 +244,25 @@ public class Table {
     public class Index {
 
         private final String sql;
+        private final String indexName;
+        private final boolean unique;
+        private final String[] columnNames;
+        private boolean expression;
+        private String whereClause = "";
 
         private Index(String tableName, String indexName, String columnName) {
-            sql = "CREATE INDEX IF NOT EXISTS " + indexName + " ON " + tableName + " (" + columnName + "); ";
+            sql = "CREATE INDEX IF NOT EXISTS " + indexName + " ON " + tableName + " (" + columnName + ")";
+            this.indexName = indexName;
+            this.unique = false;
+            this.columnNames = new String[] { columnName };
         }
 
         private Index(String tableName, String indexName, boolean unique, String... columnNames) {
             sql = "CREATE " + uniqueKeyword(unique) + "INDEX IF NOT EXISTS " + indexName + " ON " + tableName + " ("
-                    + toCsv(columnNames) + "); ";
+                    + toCsv(columnNames) + ")";
+            this.indexName = indexName;
+            this.unique = unique;
+            this.columnNames = columnNames.clone();
         }
 
         private String uniqueKeyword(boolean unique) {
@@ -85,8 +280,161 @@ public class Table {
             return columnNamesCsv.toString();
         }
 
+        /**
+         * Makes this a partial index, of only the rows satisfying the condition, such as {@code deleted = 0}. A
+         * partial index is smaller and cheaper to maintain, but only used by queries whose WHERE clause implies the
+         * condition. Needs SQLite 3.8, so API 21 or later.
+         */
+        public Index where(String condition) {
+            whereClause = " WHERE " + condition;
+            return this;
+        }
+
+        public String getSql() {
+            return sql + whereClause + "; ";
+        }
+
+        public String getName() {
+            return indexName;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public boolean isUnique() {
+            return unique;
+        }
+
+        /**
+         * Returns the indexed columns, or for an expression index the expressions.
+         */
+        public List<String> getColumnNames() {
+            return Collections.unmodifiableList(Arrays.asList(columnNames));
+        }
+
+        /**
+         * Returns true if the index was added with {@link Table#addExpressionIndex(String, String...)}.
+         */
+        public boolean isExpressionIndex() {
+            return expression;
+        }
+
+        /**
+         * Returns true if the index only covers the rows matching a {@link #where(String)} condition.
+         */
+        public boolean isPartial() {
+            return whereClause.length() > 0;
+        }
+
+    }
+
+    /**
+     * Represents an external-content FTS4 table over some of this table's columns. FTS5, which has built-in ranking,
+     * is not compiled into Android's SQLite, so FTS4 is used.
+     */
+    public class FullTextIndex {
+
+        private final String ftsTableName;
+        private final String[] columnNames;
+        private String tokenizer;
+        private int[] prefixLengths;
+
+        private FullTextIndex(String ftsTableName, String[] columnNames) {
+            this.ftsTableName = ftsTableName;
+            this.columnNames = columnNames.clone();
+        }
+
+        /**
+         * Sets the tokenizer, such as {@code porter} for English stemming or {@code unicode61} (API 21 and later)
+         * for case-folding non-ASCII text; the default is {@code simple}.
+         */
+        public FullTextIndex tokenize(String tokenizer) {
+            this.tokenizer = tokenizer;
+            return this;
+        }
+
+        /**
+         * Adds prefix indexes for terms of the given lengths, so that prefix queries such as {@code ab*} are answered
+         * from an index of prefixes rather than by scanning every term starting with them.
+         */
+        public FullTextIndex prefixIndexes(int... lengths) {
+            prefixLengths = lengths.clone();
+            return this;
+        }
+
+        public String getName() {
+            return ftsTableName;
+        }
+
+        public String getContentTableName() {
+            return tableName;
+        }
+
+        public List<String> getColumnNames() {
+            return Collections.unmodifiableList(Arrays.asList(columnNames));
+        }
+
         public String getSql() {
-            return sql;
+            if (withoutRowid) {
+                throw new IllegalStateException("A full-text index requires a rowid: " + tableName);
+            }
+            StringBuilder sql = new StringBuilder("CREATE VIRTUAL TABLE IF NOT EXISTS ").append(ftsTableName)
+                    .append(" USING fts4(content=\"").append(tableName).append("\"");
+            for (String columnName : columnNames) {
+                sql.append(", ").append(columnName);
+            }
+            if (tokenizer != null) {
+                sql.append(", tokenize=").append(tokenizer);
+            }
+            if (prefixLengths != null && prefixLengths.length > 0) {
+                sql.append(", prefix=\"");
+                for (int i = 0; i < prefixLengths.length; i++) {
+                    sql.append(i == 0 ? "" : ",").append(prefixLengths[i]);
+                }
+                sql.append("\"");
+            }
+            return sql.append("); ").toString();
+        }
+
+        /**
+         * Returns the statements creating the triggers that keep the FTS table in step with the content table: the
+         * old text is removed from the index before a row is updated or deleted, and the new text added after a row
+         * is updated or inserted.
+         */
+        public List<String> getTriggerSql() {
+            String delete = " BEGIN DELETE FROM " + ftsTableName + " WHERE docid = old.rowid; END; ";
+            String insert = " BEGIN INSERT INTO " + ftsTableName + " (docid, " + toCsv(columnNames, "")
+                    + ") VALUES (new.rowid, " + toCsv(columnNames, "new.") + "); END; ";
+            List<String> triggers = new ArrayList<String>();
+            triggers.add(createTrigger("bu", "BEFORE UPDATE") + delete);
+            triggers.add(createTrigger("bd", "BEFORE DELETE") + delete);
+            triggers.add(createTrigger("au", "AFTER UPDATE") + insert);
+            triggers.add(createTrigger("ai", "AFTER INSERT") + insert);
+            return triggers;
+        }
+
+        private String createTrigger(String suffix, String event) {
+            return "CREATE TRIGGER IF NOT EXISTS " + ftsTableName + "_" + suffix + " " + event + " ON " + tableName;
+        }
+
+        private String toCsv(String[] names, String prefix) {
+            StringBuilder csv = new StringBuilder();
+            for (String name : names) {
+                if (csv.length() > 0) {
+                    csv.append(", ");
+                }
+                csv.append(prefix).append(name);
+            }
+            return csv.toString();
+        }
+
+        /**
+         * Returns the statement that rebuilds the full-text index from the content table, as after loading the
+         * content table with the triggers not yet created.
+         */
+        public String getRebuildSql() {
+            return "INSERT INTO " + ftsTableName + " (" + ftsTableName + ") VALUES ('rebuild'); ";
         }
 
     }
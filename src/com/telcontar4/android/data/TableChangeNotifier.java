@@ -0,0 +1,53 @@
+package com.telcontar4.android.data;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tells interested parties, such as a {@link QueryCache}, that tables have been written. The library's own write
+ * paths &mdash; {@link BulkInsert}, and so {@link ReferenceDataLoader}, and the migrations run by
+ * {@link AbstractSqliteOpenHelper} &mdash; notify it after they commit; application code that writes tables by other
+ * means should call {@link #notifyTablesChanged(String...)} once its transaction has committed.
+ */
+public final class TableChangeNotifier {
+
+  private static final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+  private TableChangeNotifier() {
+  }
+
+  /**
+   * Receives table change notifications, on the thread that made the change.
+   */
+  public interface Listener {
+
+    void onTablesChanged(String... tableNames);
+
+    /**
+     * Called when tables may have changed without their names being known, as after a migration.
+     */
+    void onAllTablesChanged();
+
+  }
+
+  public static void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public static void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  public static void notifyTablesChanged(String... tableNames) {
+    for (Listener listener : listeners) {
+      listener.onTablesChanged(tableNames);
+    }
+  }
+
+  public static void notifyAllTablesChanged() {
+    for (Listener listener : listeners) {
+      listener.onAllTablesChanged();
+    }
+  }
+
+}
@@ -0,0 +1,224 @@
+package com.telcontar4.android.data.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * Base class for stub cursors with a fixed set of columns, implementing the column lookup, positioning and observer
+ * registration common to them. Subclasses provide the row count and the values at the current position.
+ */
+public abstract class AbstractTestCursor implements Cursor {
+
+    private static final int INVALID_POSITION = -1;
+
+    private final String[] columnNames;
+    private final Map<String, Integer> columnIndicesByName = new HashMap<String, Integer>();
+
+    private int position = INVALID_POSITION;
+    private final List<ContentObserver> contentObservers = new ArrayList<ContentObserver>();
+    private final List<DataSetObserver> dataSetObservers = new ArrayList<DataSetObserver>();
+    private boolean closed;
+
+    protected AbstractTestCursor(String[] columnNames) {
+        this.columnNames = columnNames;
+        for (int i = 0; i < columnNames.length; i++) {
+            columnIndicesByName.put(columnNames[i], i);
+        }
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        Integer columnIndex = columnIndicesByName.get(columnName);
+        if (columnIndex == null) {
+            return -1;
+        } else {
+            return columnIndex;
+        }
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException {
+        Integer columnIndex = columnIndicesByName.get(columnName);
+        if (columnIndex == null) {
+            throw new IllegalArgumentException(columnName + " is not a valid database column name");
+        } else {
+            return columnIndex;
+        }
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        if (columnIndex < 0 || columnIndex >= columnNames.length) {
+            throw new IllegalArgumentException(columnIndex + " is not a valid database column index");
+        } else {
+            return columnNames[columnIndex];
+        }
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        String value = getString(columnIndex);
+        if (value == null) {
+            buffer.sizeCopied = 0;
+            return;
+        }
+        int length = value.length();
+        if (buffer.data == null || buffer.data.length < length) {
+            buffer.data = new char[length];
+        }
+        value.getChars(0, length, buffer.data, 0);
+        buffer.sizeCopied = length;
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return position < 0;
+    }
+
+    @Override
+    public boolean isFirst() {
+        return position == 0 && getCount() > 0;
+    }
+
+    @Override
+    public boolean isLast() {
+        return position == getCount() - 1 && getCount() > 0;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return position >= getCount();
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(getCount() - 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(position - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(position + 1);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        if (position < 0) {
+            this.position = INVALID_POSITION;
+            return false;
+        } else if (position >= getCount()) {
+            this.position = getCount();
+            return false;
+        } else {
+            this.position = position;
+            return true;
+        }
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(position + offset);
+    }
+
+    @Override
+    public void registerContentObserver(ContentObserver observer) {
+        contentObservers.add(observer);
+    }
+
+    @Override
+    public void unregisterContentObserver(ContentObserver observer) {
+        contentObservers.remove(observer);
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        dataSetObservers.add(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        dataSetObservers.remove(observer);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    @Deprecated
+    public void deactivate() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Bundle getExtras() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean getWantsAllOnMoveCalls() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @Deprecated
+    public boolean requery() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Bundle respond(Bundle extras) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNotificationUri(ContentResolver cr, Uri uri) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Uri getNotificationUri() {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.telcontar4.android.data.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides stub data from an array of rows, each an array of column values in a fixed column order. Values are read
+ * by array index, and numeric values are converted between types as SQLite would, so large stub data sets can be
+ * scanned quickly. Use {@link #builder(String...)} to assemble rows or generate synthetic ones.
+ */
+public class ArrayBasedTestCursor extends AbstractTestCursor {
+
+    private final Object[][] rows;
+
+    public ArrayBasedTestCursor(String[] columnNames, Object[][] rows) {
+        super(columnNames);
+        this.rows = rows;
+    }
+
+    public static Builder builder(String... columnNames) {
+        return new Builder(columnNames);
+    }
+
+    @Override
+    public int getCount() {
+        return rows.length;
+    }
+
+    private Object getCurrentRowColumnValue(int columnIndex) {
+        return rows[getPosition()][columnIndex];
+    }
+
+    private Number getCurrentRowColumnNumber(int columnIndex) {
+        Object value = getCurrentRowColumnValue(columnIndex);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return (Number) value;
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value) ? 1 : 0;
+        }
+        // As SQLite does, treat text that isn't numeric as zero.
+        try {
+            return Double.valueOf(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return getCurrentRowColumnNumber(columnIndex).doubleValue();
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return getCurrentRowColumnNumber(columnIndex).floatValue();
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return getCurrentRowColumnNumber(columnIndex).intValue();
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        return getCurrentRowColumnNumber(columnIndex).longValue();
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return getCurrentRowColumnNumber(columnIndex).shortValue();
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Object value = getCurrentRowColumnValue(columnIndex);
+        if (value == null) {
+            return null;
+        } else if (value instanceof byte[]) {
+            return new String((byte[]) value);
+        } else {
+            return value.toString();
+        }
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        Object value = getCurrentRowColumnValue(columnIndex);
+        if (value == null) {
+            return null;
+        } else if (value instanceof byte[]) {
+            return (byte[]) value;
+        } else {
+            return value.toString().getBytes();
+        }
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        Object value = getCurrentRowColumnValue(columnIndex);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Double || value instanceof Float) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof Number || value instanceof Boolean) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        } else {
+            return FIELD_TYPE_STRING;
+        }
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return getCurrentRowColumnValue(columnIndex) == null;
+    }
+
+    /**
+     * Generates the values of synthetic rows.
+     */
+    public interface RowGenerator {
+
+        /**
+         * Sets the values of the row at the given position, in column order.
+         */
+        void fillRow(int position, Object[] row);
+
+    }
+
+    /**
+     * Assembles the rows of an {@link ArrayBasedTestCursor}.
+     */
+    public static class Builder {
+
+        private final String[] columnNames;
+        private final List<Object[]> rows = new ArrayList<Object[]>();
+
+        private Builder(String[] columnNames) {
+            this.columnNames = columnNames;
+        }
+
+        public Builder addRow(Object... values) {
+            if (values.length != columnNames.length) {
+                throw new IllegalArgumentException("Expected " + columnNames.length + " values but got "
+                        + values.length);
+            }
+            rows.add(values);
+            return this;
+        }
+
+        public Builder addRows(int count, RowGenerator generator) {
+            int firstPosition = rows.size();
+            for (int i = 0; i < count; i++) {
+                Object[] row = new Object[columnNames.length];
+                generator.fillRow(firstPosition + i, row);
+                rows.add(row);
+            }
+            return this;
+        }
+
+        public ArrayBasedTestCursor build() {
+            return new ArrayBasedTestCursor(columnNames, rows.toArray(new Object[rows.size()][]));
+        }
+
+    }
+
+}
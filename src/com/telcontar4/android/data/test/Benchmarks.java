@@ -0,0 +1,392 @@
+package com.telcontar4.android.data.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.provider.BaseColumns;
+
+import com.telcontar4.android.data.BulkInsert;
+import com.telcontar4.android.data.CursorColumns;
+import com.telcontar4.android.data.DataUtils;
+import com.telcontar4.android.data.Query;
+import com.telcontar4.android.data.Table;
+
+/**
+ * Micro-benchmarks of the code run on every screen: query rendering, DDL generation, {@link DataUtils} getters,
+ * stub cursor iteration and inserts into an in-memory database. Run them on a device, from an instrumentation test
+ * or a debug build, where the Android classes they use are real; {@link #run(int, int)} returns the results as JSON
+ * for tracking over time.
+ * <p>
+ * Each benchmark is warmed up and then timed over a number of iterations. Allocations are counted with
+ * {@link Debug#getThreadAllocCount()}, which some runtimes don't support, in which case they are reported as 0.
+ * Benchmarks of code that must not allocate, such as the primitive getters, fail the run if they do.
+ */
+public class Benchmarks {
+
+    private static final String TEXT_COLUMN = "text_value";
+    private static final String NUMBER_COLUMN = "numeric_value";
+    private static final String FLAG_COLUMN = "flag";
+    private static final int NESTED_JOIN_DEPTH = 6;
+
+    private final int rows;
+    private final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    private final SQLiteDatabase db = SQLiteDatabase.create(null);
+
+    private Benchmarks(int rows) {
+        this.rows = rows;
+        addQueryBenchmarks();
+        addTableBenchmarks();
+        addCursorBenchmarks();
+        addContentValuesCursorBenchmarks();
+        addInsertBenchmarks();
+    }
+
+    /**
+     * Runs every benchmark, reading {@code rows} rows per cursor iteration, and returns the results as a JSON object.
+     */
+    public static String run(int rows, int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be positive: " + iterations);
+        }
+        Benchmarks benchmarks = new Benchmarks(rows);
+        try {
+            return benchmarks.runAll(iterations);
+        } finally {
+            benchmarks.db.close();
+        }
+    }
+
+    private void addQueryBenchmarks() {
+        benchmarks.add(new Benchmark("query.render") {
+            @Override
+            long runOnce() {
+                return newJoinQuery().getSql().length();
+            }
+        });
+        final Query query = newJoinQuery();
+        benchmarks.add(new Benchmark("query.getSql.cached") {
+            @Override
+            long runOnce() {
+                return query.getSql().length();
+            }
+        });
+        benchmarks.add(new Benchmark("query.template.withLimit") {
+            @Override
+            long runOnce() {
+                return query.toTemplate().withLimit(50).getSql().length();
+            }
+        });
+        benchmarks.add(new Benchmark("query.render.nestedJoins") {
+            @Override
+            long runOnce() {
+                return newNestedJoinQuery(NESTED_JOIN_DEPTH).getSql().length();
+            }
+        });
+    }
+
+    private static Query newJoinQuery() {
+        Query subquery = new Query().select("b.parent_id").count("child_count").from("b")
+                .groupBy("b.parent_id");
+        return new Query().select("a._id", "a.text_value", "c.child_count").from("a")
+                .innerJoin(subquery, "c").on("a._id", "c.parent_id")
+                .leftOuterJoin("d").on("a.d_id", "d._id")
+                .whereEqualToArg("a.flag", 1).whereInArgs("d.type", 1, 2, 3)
+                .orderBy("a.text_value", true).orderBy("a._id", true);
+    }
+
+    /**
+     * Returns a query that joins a subquery, which joins a subquery, and so on {@code depth} levels deep.
+     */
+    private static Query newNestedJoinQuery(int depth) {
+        String table = "t" + depth;
+        Query query = new Query().select(table + "._id", table + ".parent_id").from(table);
+        if (depth > 1) {
+            query.innerJoin(newNestedJoinQuery(depth - 1), "n" + depth).on(table + "._id", "n" + depth + ".parent_id");
+        }
+        return query.whereEqualToArg(table + ".flag", 1);
+    }
+
+    private void addTableBenchmarks() {
+        benchmarks.add(new Benchmark("table.ddl") {
+            @Override
+            long runOnce() {
+                Table table = new Table("benchmark").withIdColumn(BaseColumns._ID)
+                        .withColumn(TEXT_COLUMN, Table.COLUMN_TYPE_TEXT)
+                        .withColumn(NUMBER_COLUMN, Table.COLUMN_TYPE_INTEGER);
+                return table.getSql().length() + table.addIndex("benchmark_idx", true, TEXT_COLUMN, NUMBER_COLUMN)
+                        .getSql().length();
+            }
+        });
+    }
+
+    private void addCursorBenchmarks() {
+        final Cursor cursor = ArrayBasedTestCursor.builder(BaseColumns._ID, TEXT_COLUMN, NUMBER_COLUMN, FLAG_COLUMN)
+                .addRows(rows, new ArrayBasedTestCursor.RowGenerator() {
+                    @Override
+                    public void fillRow(int position, Object[] row) {
+                        row[0] = Long.valueOf(position + 1);
+                        row[1] = "Row " + position;
+                        row[2] = position % 10 == 0 ? null : Long.valueOf(position * 31L);
+                        row[3] = Integer.valueOf(position % 2);
+                    }
+                }).build();
+        benchmarks.add(new Benchmark("cursor.iterate") {
+            @Override
+            long runOnce() {
+                long checksum = 0;
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    checksum += cursor.getLong(0);
+                }
+                return checksum;
+            }
+        });
+        benchmarks.add(new Benchmark("cursor.getters.getColumnIndex") {
+            @Override
+            long runOnce() {
+                long checksum = 0;
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    checksum += cursor.getLong(cursor.getColumnIndex(BaseColumns._ID))
+                            + cursor.getLong(cursor.getColumnIndex(NUMBER_COLUMN))
+                            + cursor.getString(cursor.getColumnIndex(TEXT_COLUMN)).length()
+                            + cursor.getInt(cursor.getColumnIndex(FLAG_COLUMN));
+                }
+                return checksum;
+            }
+        });
+        benchmarks.add(new Benchmark("cursor.getters.byIndex") {
+            @Override
+            long runOnce() {
+                long checksum = 0;
+                int idIndex = cursor.getColumnIndex(BaseColumns._ID);
+                int numberIndex = cursor.getColumnIndex(NUMBER_COLUMN);
+                int textIndex = cursor.getColumnIndex(TEXT_COLUMN);
+                int flagIndex = cursor.getColumnIndex(FLAG_COLUMN);
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    checksum += cursor.getLong(idIndex) + cursor.getLong(numberIndex)
+                            + cursor.getString(textIndex).length() + cursor.getInt(flagIndex);
+                }
+                return checksum;
+            }
+        });
+        benchmarks.add(new Benchmark("dataUtils.getters.byName") {
+            @Override
+            long runOnce() {
+                long checksum = 0;
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    Long number = DataUtils.getLong(cursor, NUMBER_COLUMN);
+                    checksum += DataUtils.getLong(cursor, BaseColumns._ID) + (number == null ? 0 : number)
+                            + DataUtils.getString(cursor, TEXT_COLUMN).length()
+                            + (DataUtils.getBoolean(cursor, FLAG_COLUMN) ? 1 : 0);
+                }
+                return checksum;
+            }
+        });
+        benchmarks.add(new Benchmark("dataUtils.getters.cursorColumns") {
+            @Override
+            long runOnce() {
+                long checksum = 0;
+                CursorColumns columns = new CursorColumns(cursor, BaseColumns._ID, TEXT_COLUMN, NUMBER_COLUMN,
+                        FLAG_COLUMN);
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    Long number = columns.getLong(2);
+                    checksum += columns.getLong(0) + (number == null ? 0 : number) + columns.getString(1).length()
+                            + (columns.getBoolean(3) ? 1 : 0);
+                }
+                return checksum;
+            }
+        });
+        // The columns are resolved during the warm-up, so that the timed iterations only read values.
+        final CursorColumns columns = new CursorColumns(cursor, BaseColumns._ID, TEXT_COLUMN, NUMBER_COLUMN,
+                FLAG_COLUMN);
+        benchmarks.add(new Benchmark("dataUtils.getters.primitive", true) {
+            @Override
+            long runOnce() {
+                long checksum = 0;
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    checksum += columns.getLongOrDefault(0, 0) + columns.getLongOrDefault(2, 0)
+                            + columns.getIntOrDefault(3, 0) + (columns.getBooleanOrDefault(3, false) ? 1 : 0)
+                            + (columns.isAnyNull(0, 2) ? 1 : 0);
+                }
+                return checksum;
+            }
+        });
+    }
+
+    private void addContentValuesCursorBenchmarks() {
+        final ContentValues[] rowValues = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            rowValues[i] = new ContentValues();
+            rowValues[i].put(BaseColumns._ID, Long.valueOf(i + 1));
+            rowValues[i].put(TEXT_COLUMN, "Row " + i);
+            rowValues[i].put(NUMBER_COLUMN, Long.valueOf(i * 31L));
+        }
+        benchmarks.add(new Benchmark("contentValuesCursor.create") {
+            @Override
+            long runOnce() {
+                return new ContentValuesArrayBasedTestCursor(rowValues).getCount();
+            }
+        });
+        final Cursor cursor = new ContentValuesArrayBasedTestCursor(rowValues);
+        benchmarks.add(new Benchmark("contentValuesCursor.iterate") {
+            @Override
+            long runOnce() {
+                long checksum = 0;
+                int numberIndex = cursor.getColumnIndexOrThrow(NUMBER_COLUMN);
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    checksum += cursor.getLong(numberIndex);
+                }
+                return checksum;
+            }
+        });
+    }
+
+    /**
+     * Compares {@link BulkInsert} with inserting a {@link ContentValues} per row, both into an empty table and within
+     * a transaction, as callers inserting many rows would.
+     */
+    private void addInsertBenchmarks() {
+        final Table table = new Table("benchmark_insert").withIdColumn(BaseColumns._ID)
+                .withColumn(TEXT_COLUMN, Table.COLUMN_TYPE_TEXT)
+                .withColumn(NUMBER_COLUMN, Table.COLUMN_TYPE_INTEGER);
+        db.execSQL(table.getSql());
+        final String[] texts = new String[rows];
+        final long[] numbers = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            texts[i] = "Row " + i;
+            numbers[i] = i * 31L;
+        }
+        final BulkInsert insert = new BulkInsert(table, TEXT_COLUMN, NUMBER_COLUMN).chunkSize(Math.max(rows, 1));
+        benchmarks.add(new Benchmark("insert.bulkInsert") {
+            @Override
+            long runOnce() {
+                db.delete(table.getName(), null, null);
+                return insert.execute(db, texts, numbers).getRowCount();
+            }
+        });
+        benchmarks.add(new Benchmark("insert.contentValues") {
+            @Override
+            long runOnce() {
+                db.delete(table.getName(), null, null);
+                long checksum = 0;
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < rows; i++) {
+                        ContentValues values = new ContentValues();
+                        values.put(TEXT_COLUMN, texts[i]);
+                        values.put(NUMBER_COLUMN, numbers[i]);
+                        checksum += db.insert(table.getName(), null, values) > 0 ? 1 : 0;
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                return checksum;
+            }
+        });
+    }
+
+    @SuppressWarnings("deprecation")
+    private String runAll(int iterations) {
+        StringBuilder json = new StringBuilder("{\"rows\":").append(rows).append(",\"iterations\":")
+                .append(iterations).append(",\"benchmarks\":[");
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < benchmarks.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                benchmarks.get(i).measure(iterations).appendJson(json);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * A single benchmark; {@link #runOnce()} returns a checksum so that its work can't be optimized away.
+     */
+    private abstract static class Benchmark {
+
+        private final String name;
+        private final boolean allocationFree;
+        private long checksum;
+
+        Benchmark(String name) {
+            this(name, false);
+        }
+
+        /**
+         * Creates a benchmark that fails, once warmed up, if {@link #runOnce()} allocates anything.
+         */
+        Benchmark(String name, boolean allocationFree) {
+            this.name = name;
+            this.allocationFree = allocationFree;
+        }
+
+        abstract long runOnce();
+
+        @SuppressWarnings("deprecation")
+        Result measure(int iterations) {
+            for (int i = 0; i < iterations; i++) {
+                checksum += runOnce();
+            }
+            Debug.resetThreadAllocCount();
+            long minNanos = Long.MAX_VALUE;
+            long totalNanos = 0;
+            for (int i = 0; i < iterations; i++) {
+                long startNanos = System.nanoTime();
+                checksum += runOnce();
+                long elapsedNanos = System.nanoTime() - startNanos;
+                totalNanos += elapsedNanos;
+                minNanos = Math.min(minNanos, elapsedNanos);
+            }
+            long allocations = Debug.getThreadAllocCount();
+            if (allocationFree && allocations > 0) {
+                throw new IllegalStateException(name + " allocated " + allocations + " objects in " + iterations
+                        + " iterations");
+            }
+            return new Result(name, totalNanos / iterations, minNanos, (double) allocations / iterations, checksum);
+        }
+
+    }
+
+    /**
+     * The timings of a benchmark, in nanoseconds per call of {@link Benchmark#runOnce()}.
+     */
+    private static class Result {
+
+        private final String name;
+        private final long meanNanos;
+        private final long minNanos;
+        private final double allocationsPerOp;
+        private final long checksum;
+
+        Result(String name, long meanNanos, long minNanos, double allocationsPerOp, long checksum) {
+            this.name = name;
+            this.meanNanos = meanNanos;
+            this.minNanos = minNanos;
+            this.allocationsPerOp = allocationsPerOp;
+            this.checksum = checksum;
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append("{\"name\":\"").append(name).append("\",\"meanNanos\":").append(meanNanos)
+                    .append(",\"minNanos\":").append(minNanos).append(",\"allocationsPerOp\":")
+                    .append(allocationsPerOp).append(",\"checksum\":").append(checksum).append('}');
+        }
+
+    }
+
+}
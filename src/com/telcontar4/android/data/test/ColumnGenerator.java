@@ -0,0 +1,207 @@
+package com.telcontar4.android.data.test;
+
+import android.database.Cursor;
+
+/**
+ * Computes the value of a column of a {@link SyntheticTestCursor} from the row position alone, so that no row data
+ * need be held. Subclasses give the type of each value and must implement the getter for it, which otherwise throws
+ * IllegalStateException; the other getters convert from that one, reading text that isn't numeric as zero.
+ */
+public abstract class ColumnGenerator {
+
+    /**
+     * Returns the type of the value at the position, as one of the {@code Cursor.FIELD_TYPE_XXX} constants.
+     */
+    public abstract int getType(int position);
+
+    public long getLong(int position) {
+        switch (getType(position)) {
+        case Cursor.FIELD_TYPE_NULL:
+            return 0;
+        case Cursor.FIELD_TYPE_INTEGER:
+            throw notImplemented("getLong", position);
+        case Cursor.FIELD_TYPE_FLOAT:
+            return (long) getDouble(position);
+        default:
+            return (long) parseDouble(getString(position));
+        }
+    }
+
+    public double getDouble(int position) {
+        switch (getType(position)) {
+        case Cursor.FIELD_TYPE_NULL:
+            return 0;
+        case Cursor.FIELD_TYPE_INTEGER:
+            return getLong(position);
+        case Cursor.FIELD_TYPE_FLOAT:
+            throw notImplemented("getDouble", position);
+        default:
+            return parseDouble(getString(position));
+        }
+    }
+
+    private static double parseDouble(String value) {
+        // As SQLite does, treat text that isn't numeric as zero.
+        try {
+            return value == null ? 0 : Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public String getString(int position) {
+        switch (getType(position)) {
+        case Cursor.FIELD_TYPE_NULL:
+            return null;
+        case Cursor.FIELD_TYPE_INTEGER:
+            return Long.toString(getLong(position));
+        case Cursor.FIELD_TYPE_FLOAT:
+            return Double.toString(getDouble(position));
+        case Cursor.FIELD_TYPE_STRING:
+            throw notImplemented("getString", position);
+        default:
+            return new String(getBlob(position));
+        }
+    }
+
+    public byte[] getBlob(int position) {
+        if (getType(position) == Cursor.FIELD_TYPE_BLOB) {
+            throw notImplemented("getBlob", position);
+        }
+        String value = getString(position);
+        return value == null ? null : value.getBytes();
+    }
+
+    /**
+     * Reports a generator that doesn't implement the getter for the type it declares, which the other getters would
+     * otherwise call in a circle.
+     */
+    private IllegalStateException notImplemented(String getter, int position) {
+        return new IllegalStateException(getClass().getName() + " declares type " + getType(position)
+                + " at position " + position + " but doesn't implement " + getter);
+    }
+
+    /**
+     * Generates {@code start}, {@code start + step}, {@code start + 2 * step} and so on; suitable for IDs and
+     * timestamps.
+     */
+    public static ColumnGenerator sequence(final long start, final long step) {
+        return new ColumnGenerator() {
+
+            @Override
+            public int getType(int position) {
+                return Cursor.FIELD_TYPE_INTEGER;
+            }
+
+            @Override
+            public long getLong(int position) {
+                return start + step * position;
+            }
+
+        };
+    }
+
+    /**
+     * Generates integers spread pseudo-randomly, but repeatably, over {@code [0, bound)}.
+     */
+    public static ColumnGenerator scrambled(final long seed, final long bound) {
+        if (bound < 1) {
+            throw new IllegalArgumentException("Bound must be positive: " + bound);
+        }
+        return new ColumnGenerator() {
+
+            @Override
+            public int getType(int position) {
+                return Cursor.FIELD_TYPE_INTEGER;
+            }
+
+            @Override
+            public long getLong(int position) {
+                // SplitMix64's finalizer, which maps consecutive inputs to well-mixed outputs.
+                long z = seed + position * 0x9E3779B97F4A7C15L;
+                z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+                z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+                z = z ^ (z >>> 31);
+                return (z >>> 1) % bound;
+            }
+
+        };
+    }
+
+    /**
+     * Generates {@code prefix} followed by the position.
+     */
+    public static ColumnGenerator text(final String prefix) {
+        return new ColumnGenerator() {
+
+            @Override
+            public int getType(int position) {
+                return Cursor.FIELD_TYPE_STRING;
+            }
+
+            @Override
+            public String getString(int position) {
+                return prefix + position;
+            }
+
+        };
+    }
+
+    /**
+     * Cycles through the given values.
+     */
+    public static ColumnGenerator cycle(final String... values) {
+        return new ColumnGenerator() {
+
+            @Override
+            public int getType(int position) {
+                return Cursor.FIELD_TYPE_STRING;
+            }
+
+            @Override
+            public String getString(int position) {
+                return values[position % values.length];
+            }
+
+        };
+    }
+
+    /**
+     * Generates null at every {@code interval}th position, starting with the first, and otherwise the values of the
+     * given generator.
+     */
+    public static ColumnGenerator nullEvery(final int interval, final ColumnGenerator generator) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Interval must be positive: " + interval);
+        }
+        return new ColumnGenerator() {
+
+            @Override
+            public int getType(int position) {
+                return position % interval == 0 ? Cursor.FIELD_TYPE_NULL : generator.getType(position);
+            }
+
+            @Override
+            public long getLong(int position) {
+                return position % interval == 0 ? 0 : generator.getLong(position);
+            }
+
+            @Override
+            public double getDouble(int position) {
+                return position % interval == 0 ? 0 : generator.getDouble(position);
+            }
+
+            @Override
+            public String getString(int position) {
+                return position % interval == 0 ? null : generator.getString(position);
+            }
+
+            @Override
+            public byte[] getBlob(int position) {
+                return position % interval == 0 ? null : generator.getBlob(position);
+            }
+
+        };
+    }
+
+}
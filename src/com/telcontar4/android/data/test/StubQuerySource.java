@@ -0,0 +1,68 @@
+package com.telcontar4.android.data.test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.database.Cursor;
+
+import com.telcontar4.android.data.QueryExecutor;
+
+/**
+ * Stands in for the database behind a {@link QueryExecutor} in unit tests, returning a new
+ * {@link ArrayBasedTestCursor} over the rows given for each SQL statement and counting how often each is executed.
+ * An optional delay simulates a slow query, so that tests can submit requests while one is in flight.
+ */
+public class StubQuerySource implements QueryExecutor.Source {
+
+    private final Map<String, Result> resultsBySql = new ConcurrentHashMap<String, Result>();
+    private final Map<String, AtomicInteger> executionCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private volatile long delayMillis;
+
+    public StubQuerySource whenQuery(String sql, String[] columnNames, Object[][] rows) {
+        resultsBySql.put(sql, new Result(columnNames, rows));
+        executionCounts.put(sql, new AtomicInteger());
+        return this;
+    }
+
+    public StubQuerySource withDelay(long millis) {
+        delayMillis = millis;
+        return this;
+    }
+
+    @Override
+    public Cursor query(String sql, Object[] args) {
+        Result result = resultsBySql.get(sql);
+        if (result == null) {
+            throw new IllegalArgumentException("No stub result for " + sql);
+        }
+        executionCounts.get(sql).incrementAndGet();
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while executing " + sql, e);
+            }
+        }
+        return new ArrayBasedTestCursor(result.columnNames, result.rows);
+    }
+
+    public int getExecutionCount(String sql) {
+        AtomicInteger count = executionCounts.get(sql);
+        return count == null ? 0 : count.get();
+    }
+
+    private static class Result {
+
+        private final String[] columnNames;
+        private final Object[][] rows;
+
+        Result(String[] columnNames, Object[][] rows) {
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.telcontar4.android.data.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides stub data computed on demand, one {@link ColumnGenerator} per column, so that a cursor of millions of rows
+ * takes no more memory than one of a single row. Useful for load-testing list binding and {@code Cursor}-reading
+ * code at production scale:
+ *
+ * <pre>
+ * Cursor cursor = SyntheticTestCursor.builder(5000000)
+ *         .column(BaseColumns._ID, ColumnGenerator.sequence(1, 1))
+ *         .column(MyTable.TEXT, ColumnGenerator.text("Row "))
+ *         .build();
+ * </pre>
+ */
+public class SyntheticTestCursor extends AbstractTestCursor {
+
+    private final int count;
+    private final ColumnGenerator[] generators;
+
+    public SyntheticTestCursor(int count, String[] columnNames, ColumnGenerator[] generators) {
+        super(columnNames);
+        if (generators.length != columnNames.length) {
+            throw new IllegalArgumentException("Expected " + columnNames.length + " generators but got "
+                    + generators.length);
+        }
+        this.count = count;
+        this.generators = generators;
+    }
+
+    public static Builder builder(int count) {
+        return new Builder(count);
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return generators[columnIndex].getDouble(getPosition());
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return (float) generators[columnIndex].getDouble(getPosition());
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) generators[columnIndex].getLong(getPosition());
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        return generators[columnIndex].getLong(getPosition());
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return (short) generators[columnIndex].getLong(getPosition());
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return generators[columnIndex].getString(getPosition());
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        return generators[columnIndex].getBlob(getPosition());
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        return generators[columnIndex].getType(getPosition());
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return generators[columnIndex].getType(getPosition()) == FIELD_TYPE_NULL;
+    }
+
+    /**
+     * Assembles the columns of a {@link SyntheticTestCursor}.
+     */
+    public static class Builder {
+
+        private final int count;
+        private final List<String> columnNames = new ArrayList<String>();
+        private final List<ColumnGenerator> generators = new ArrayList<ColumnGenerator>();
+
+        private Builder(int count) {
+            this.count = count;
+        }
+
+        public Builder column(String columnName, ColumnGenerator generator) {
+            columnNames.add(columnName);
+            generators.add(generator);
+            return this;
+        }
+
+        public SyntheticTestCursor build() {
+            return new SyntheticTestCursor(count, columnNames.toArray(new String[columnNames.size()]),
+                    generators.toArray(new ColumnGenerator[generators.size()]));
+        }
+
+    }
+
+}